@@ -0,0 +1,41 @@
+package com.github.simplesteph.grpc.benchmarks;
+
+import io.grpc.stub.StreamObserver;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Hands the responses of a call to the blackhole, and lets the benchmark thread wait for the end of the call.
+ */
+class AwaitingObserver<T> implements StreamObserver<T> {
+
+    private final Blackhole blackhole;
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    AwaitingObserver(Blackhole blackhole) {
+        this.blackhole = blackhole;
+    }
+
+    @Override
+    public void onNext(T value) {
+        blackhole.consume(value);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        done.completeExceptionally(t);
+    }
+
+    @Override
+    public void onCompleted() {
+        done.complete(null);
+    }
+
+    /**
+     * Waits for the call to complete, a failed call fails the benchmark.
+     */
+    void await() {
+        done.join();
+    }
+}
@@ -0,0 +1,58 @@
+package com.github.simplesteph.grpc.benchmarks;
+
+import com.proto.calculator.FindMaximumRequest;
+import com.proto.calculator.FindMaximumResponse;
+import com.proto.greet.GreetEveryoneRequest;
+import com.proto.greet.GreetEveryoneResponse;
+import com.proto.greet.Greeting;
+import io.grpc.stub.StreamObserver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams both ways, MESSAGES requests answered as they come: GreetEveryone, one greeting per request,
+ * and FindMaximum, one response per new maximum on increasing numbers.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BidiStreamingBenchmark {
+
+    static final int MESSAGES = 100;
+
+    private static final GreetEveryoneRequest GREET_EVERYONE_REQUEST = GreetEveryoneRequest.newBuilder()
+            .setGreeting(Greeting.newBuilder().setFirstName("Stephane"))
+            .build();
+
+    @Benchmark
+    public void greetEveryone(RpcServerState server, Blackhole blackhole) {
+        AwaitingObserver<GreetEveryoneResponse> responses = new AwaitingObserver<>(blackhole);
+        StreamObserver<GreetEveryoneRequest> requests = server.greetStub.greetEveryone(responses);
+        for (int i = 0; i < MESSAGES; i++) {
+            requests.onNext(GREET_EVERYONE_REQUEST);
+        }
+        requests.onCompleted();
+        responses.await();
+    }
+
+    @Benchmark
+    public void findMaximum(RpcServerState server, Blackhole blackhole) {
+        AwaitingObserver<FindMaximumResponse> responses = new AwaitingObserver<>(blackhole);
+        StreamObserver<FindMaximumRequest> requests = server.calculatorStub.findMaximum(responses);
+        for (int i = 0; i < MESSAGES; i++) {
+            requests.onNext(FindMaximumRequest.newBuilder().setNumber(i).build());
+        }
+        requests.onCompleted();
+        responses.await();
+    }
+}
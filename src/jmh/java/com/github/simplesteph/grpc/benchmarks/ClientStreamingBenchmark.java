@@ -0,0 +1,57 @@
+package com.github.simplesteph.grpc.benchmarks;
+
+import com.proto.calculator.ComputeAverageRequest;
+import com.proto.calculator.ComputeAverageResponse;
+import com.proto.greet.Greeting;
+import com.proto.greet.LongGreetRequest;
+import com.proto.greet.LongGreetResponse;
+import io.grpc.stub.StreamObserver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A stream of MESSAGES requests, one response: LongGreet and ComputeAverage, one number per message.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientStreamingBenchmark {
+
+    static final int MESSAGES = 100;
+
+    private static final LongGreetRequest LONG_GREET_REQUEST = LongGreetRequest.newBuilder()
+            .setGreeting(Greeting.newBuilder().setFirstName("Stephane"))
+            .build();
+
+    @Benchmark
+    public void longGreet(RpcServerState server, Blackhole blackhole) {
+        AwaitingObserver<LongGreetResponse> responses = new AwaitingObserver<>(blackhole);
+        StreamObserver<LongGreetRequest> requests = server.greetStub.longGreet(responses);
+        for (int i = 0; i < MESSAGES; i++) {
+            requests.onNext(LONG_GREET_REQUEST);
+        }
+        requests.onCompleted();
+        responses.await();
+    }
+
+    @Benchmark
+    public void computeAverage(RpcServerState server, Blackhole blackhole) {
+        AwaitingObserver<ComputeAverageResponse> responses = new AwaitingObserver<>(blackhole);
+        StreamObserver<ComputeAverageRequest> requests = server.calculatorStub.computeAverage(responses);
+        for (int i = 0; i < MESSAGES; i++) {
+            requests.onNext(ComputeAverageRequest.newBuilder().setNumber(i).build());
+        }
+        requests.onCompleted();
+        responses.await();
+    }
+}
@@ -0,0 +1,131 @@
+package com.github.simplesteph.grpc.benchmarks;
+
+import com.github.simplesteph.grpc.blog.server.AsyncBlogRepository;
+import com.github.simplesteph.grpc.blog.server.BlogServiceImpl;
+import com.github.simplesteph.grpc.blog.server.EmbeddedBlogRepository;
+import com.github.simplesteph.grpc.blog.server.ExecutorBlogRepository;
+import com.github.simplesteph.grpc.calculator.server.CalculatorServiceImpl;
+import com.github.simplesteph.grpc.calculator.server.FactorizationCache;
+import com.github.simplesteph.grpc.greeting.server.GreetServiceImpl;
+import com.github.simplesteph.grpc.server.ServerConfig;
+import com.github.simplesteph.grpc.server.ServerLauncher;
+import com.proto.blog.Blog;
+import com.proto.blog.BlogServiceGrpc;
+import com.proto.calculator.CalculatorServiceGrpc;
+import com.proto.greet.GreetServiceGrpc;
+import io.grpc.BindableService;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The greeting, calculator and blog services behind one server, called through the in-process transport
+ * or through Netty over the loopback interface.
+ * <p>
+ * The blogs are kept by the embedded store in a temporary file, so no MongoDB is needed,
+ * and greetManyTimes sends its greetings back to back instead of one per second.
+ */
+@State(Scope.Benchmark)
+public class RpcServerState {
+
+    // the blogs in the store, ListBlog lists them by pages of LIST_PAGE_SIZE
+    static final int BLOG_COUNT = 1000;
+    static final int LIST_PAGE_SIZE = 100;
+
+    @Param({"inprocess", "netty"})
+    public String transport;
+
+    GreetServiceGrpc.GreetServiceBlockingStub greetBlockingStub;
+    GreetServiceGrpc.GreetServiceStub greetStub;
+    CalculatorServiceGrpc.CalculatorServiceBlockingStub calculatorBlockingStub;
+    CalculatorServiceGrpc.CalculatorServiceStub calculatorStub;
+    BlogServiceGrpc.BlogServiceBlockingStub blogBlockingStub;
+
+    private ScheduledExecutorService greetScheduler;
+    private Path blogStorePath;
+    private AsyncBlogRepository blogRepository;
+    private Server inProcessServer;
+    private ServerLauncher nettyServer;
+    private ManagedChannel channel;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        blogStorePath = Files.createTempFile("blog-benchmark", ".log");
+        blogRepository = new ExecutorBlogRepository(
+                new EmbeddedBlogRepository(blogStorePath), ExecutorBlogRepository.DIRECT);
+        List<Blog> blogs = new ArrayList<>(BLOG_COUNT);
+        for (int i = 0; i < BLOG_COUNT; i++) {
+            blogs.add(Blog.newBuilder()
+                    .setAuthorId("author-" + (i % 10))
+                    .setTitle("Blog number " + i)
+                    .setContent("The content of the blog number " + i)
+                    .build());
+        }
+        blogRepository.createAll(blogs).join();
+
+        List<BindableService> services = new ArrayList<>();
+        greetScheduler = Executors.newSingleThreadScheduledExecutor();
+        services.add(new GreetServiceImpl(greetScheduler, 0,
+                GreetServiceImpl.DEFAULT_LONG_GREET_MAX_LENGTH, GreetServiceImpl.LongGreetOverflow.REJECT));
+        services.add(new CalculatorServiceImpl(new FactorizationCache(100_000)));
+        services.add(new BlogServiceImpl(blogRepository));
+
+        switch (transport) {
+            case "inprocess":
+                String name = "benchmark-" + UUID.randomUUID();
+                InProcessServerBuilder serverBuilder = InProcessServerBuilder.forName(name);
+                services.forEach(serverBuilder::addService);
+                inProcessServer = serverBuilder.build().start();
+                channel = InProcessChannelBuilder.forName(name).build();
+                break;
+            case "netty":
+                // any free port
+                nettyServer = new ServerLauncher(ServerConfig.newBuilder(0).build());
+                services.forEach(nettyServer::addService);
+                Server server = nettyServer.start();
+                channel = NettyChannelBuilder.forAddress("localhost", server.getPort())
+                        .usePlaintext()
+                        .build();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown transport: " + transport);
+        }
+
+        greetBlockingStub = GreetServiceGrpc.newBlockingStub(channel);
+        greetStub = GreetServiceGrpc.newStub(channel);
+        calculatorBlockingStub = CalculatorServiceGrpc.newBlockingStub(channel);
+        calculatorStub = CalculatorServiceGrpc.newStub(channel);
+        blogBlockingStub = BlogServiceGrpc.newBlockingStub(channel);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        if (inProcessServer != null) {
+            inProcessServer.shutdownNow().awaitTermination();
+        }
+        if (nettyServer != null) {
+            nettyServer.shutdown();
+        }
+        greetScheduler.shutdownNow();
+        blogRepository.close();
+        Files.deleteIfExists(blogStorePath);
+    }
+}
@@ -0,0 +1,58 @@
+package com.github.simplesteph.grpc.benchmarks;
+
+import com.proto.blog.ListBlogRequest;
+import com.proto.calculator.PrimeNumberDecompositionRequest;
+import com.proto.greet.GreetManyTimesRequest;
+import com.proto.greet.Greeting;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One request, a stream of responses read to the end: GreetManyTimes (10 greetings),
+ * PrimeNumberDecomposition (16 factors) and ListBlog (a page of 100 blogs).
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServerStreamingBenchmark {
+
+    private static final GreetManyTimesRequest GREET_MANY_TIMES_REQUEST = GreetManyTimesRequest.newBuilder()
+            .setGreeting(Greeting.newBuilder().setFirstName("Stephane"))
+            .build();
+
+    // 2^10 * 3^2 * 5 * 7 * 11 * 13
+    private static final PrimeNumberDecompositionRequest PRIME_NUMBER_DECOMPOSITION_REQUEST =
+            PrimeNumberDecompositionRequest.newBuilder()
+                    .setNumber(1024L * 9 * 5 * 7 * 11 * 13)
+                    .build();
+
+    private static final ListBlogRequest LIST_BLOG_REQUEST = ListBlogRequest.newBuilder()
+            .setPageSize(RpcServerState.LIST_PAGE_SIZE)
+            .build();
+
+    @Benchmark
+    public void greetManyTimes(RpcServerState server, Blackhole blackhole) {
+        server.greetBlockingStub.greetManyTimes(GREET_MANY_TIMES_REQUEST).forEachRemaining(blackhole::consume);
+    }
+
+    @Benchmark
+    public void primeNumberDecomposition(RpcServerState server, Blackhole blackhole) {
+        server.calculatorBlockingStub.primeNumberDecomposition(PRIME_NUMBER_DECOMPOSITION_REQUEST)
+                .forEachRemaining(blackhole::consume);
+    }
+
+    @Benchmark
+    public void listBlog(RpcServerState server, Blackhole blackhole) {
+        server.blogBlockingStub.listBlog(LIST_BLOG_REQUEST).forEachRemaining(blackhole::consume);
+    }
+}
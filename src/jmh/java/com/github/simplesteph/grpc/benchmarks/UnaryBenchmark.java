@@ -0,0 +1,46 @@
+package com.github.simplesteph.grpc.benchmarks;
+
+import com.proto.calculator.SumRequest;
+import com.proto.calculator.SumResponse;
+import com.proto.greet.GreetRequest;
+import com.proto.greet.GreetResponse;
+import com.proto.greet.Greeting;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One request, one response: Greet and Sum.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UnaryBenchmark {
+
+    private static final GreetRequest GREET_REQUEST = GreetRequest.newBuilder()
+            .setGreeting(Greeting.newBuilder().setFirstName("Stephane").setLastName("Maarek"))
+            .build();
+
+    private static final SumRequest SUM_REQUEST = SumRequest.newBuilder()
+            .setFirstNumber(10)
+            .setSecondNumber(25)
+            .build();
+
+    @Benchmark
+    public GreetResponse greet(RpcServerState server) {
+        return server.greetBlockingStub.greet(GREET_REQUEST);
+    }
+
+    @Benchmark
+    public SumResponse sum(RpcServerState server) {
+        return server.calculatorBlockingStub.sum(SUM_REQUEST);
+    }
+}
@@ -1,9 +1,12 @@
 package com.github.simplesteph.grpc.blog.client;
 
+import com.google.protobuf.FieldMask;
 import com.proto.blog.*;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
 
+import java.util.Iterator;
+
 public class BlogClient {
 
 
@@ -86,5 +89,32 @@ public class BlogClient {
                 listBlogResponse -> System.out.println(listBlogResponse.getBlog().toString())
         );
 
+        // we list the ids and titles of the 50 newest blogs of an author, in pages of 10
+        String pageToken = "";
+        for (int page = 0; page < 5; page++) {
+            System.out.println("Listing page " + page);
+            Iterator<ListBlogResponse> responses = blogClient.listBlog(ListBlogRequest.newBuilder()
+                    .setAuthorId("Stephane")
+                    .setPageSize(10)
+                    .setPageToken(pageToken)
+                    .setReadMask(FieldMask.newBuilder()
+                            .addPaths("id")
+                            .addPaths("title"))
+                    .build());
+
+            String lastToken = pageToken;
+            while (responses.hasNext()) {
+                ListBlogResponse listBlogResponse = responses.next();
+                System.out.println(listBlogResponse.getBlog().toString());
+                lastToken = listBlogResponse.getNextPageToken();
+            }
+
+            if (lastToken.equals(pageToken)) {
+                // empty page, we've seen all the blogs of this author
+                break;
+            }
+            pageToken = lastToken;
+        }
+
     }
 }
@@ -0,0 +1,128 @@
+package com.github.simplesteph.grpc.blog.client;
+
+import com.google.protobuf.FieldMask;
+import com.proto.blog.*;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps a fixed number of readBlog calls in flight against a running BlogServer, and reports
+ * the throughput and latencies. Run it once per blog.mode of the server to compare them:
+ * the reads use a read mask, so they bypass the blog cache and always reach the store.
+ * The server must run without a concurrency limit, -Dgrpc.limit.mode=off, the default: a limit would reject
+ * most of the calls in flight, they are counted apart from the other failures.
+ * <p>
+ * Arguments: [concurrent calls, 5000 by default] [total calls, 50000 by default]
+ */
+public class BlogConcurrencyBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int concurrency = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+        int totalCalls = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+
+        ManagedChannel channel = ManagedChannelBuilder.forAddress("localhost", 50051)
+                .usePlaintext()
+                .build();
+
+        String blogId = BlogServiceGrpc.newBlockingStub(channel)
+                .createBlog(CreateBlogRequest.newBuilder()
+                        .setBlog(Blog.newBuilder()
+                                .setAuthorId("Stephane")
+                                .setTitle("Benchmark blog")
+                                .setContent("Read over and over again"))
+                        .build())
+                .getBlog().getId();
+
+        ReadBlogRequest request = ReadBlogRequest.newBuilder()
+                .setBlogId(blogId)
+                .setReadMask(FieldMask.newBuilder().addPaths("title"))
+                .build();
+
+        BlogServiceGrpc.BlogServiceStub asyncClient = BlogServiceGrpc.newStub(channel);
+
+        // a first round warms up the connections and the JIT of both sides
+        run(asyncClient, request, concurrency, Math.min(totalCalls, concurrency));
+
+        long[] latencies = new long[totalCalls];
+        AtomicInteger rejected = new AtomicInteger();
+        long start = System.nanoTime();
+        int failures = run(asyncClient, request, concurrency, latencies, rejected);
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        System.out.println(totalCalls + " calls, " + concurrency + " in flight, " + failures + " failed, "
+                + rejected.get() + " rejected by the concurrency limit");
+        if (rejected.get() > 0) {
+            System.out.println("the latencies include the rejections, run the server with -Dgrpc.limit.mode=off");
+        }
+        System.out.printf("throughput: %.0f calls/s%n", totalCalls / (elapsed / 1e9));
+        System.out.printf("latency p50: %.2f ms, p99: %.2f ms, max: %.2f ms%n",
+                percentile(latencies, 0.50) / 1e6,
+                percentile(latencies, 0.99) / 1e6,
+                latencies[latencies.length - 1] / 1e6);
+
+        channel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    private static void run(BlogServiceGrpc.BlogServiceStub asyncClient, ReadBlogRequest request,
+                            int concurrency, int calls) throws InterruptedException {
+        run(asyncClient, request, concurrency, new long[calls], new AtomicInteger());
+    }
+
+    /**
+     * Makes latencies.length calls, never more than concurrency at once, and records the latency of each.
+     *
+     * @param rejected counts the calls failed with RESOURCE_EXHAUSTED
+     * @return the number of the other failed calls
+     */
+    private static int run(BlogServiceGrpc.BlogServiceStub asyncClient, ReadBlogRequest request,
+                           int concurrency, long[] latencies, AtomicInteger rejected) throws InterruptedException {
+        Semaphore inFlight = new Semaphore(concurrency);
+        CountDownLatch done = new CountDownLatch(latencies.length);
+        AtomicInteger failures = new AtomicInteger();
+
+        for (int i = 0; i < latencies.length; i++) {
+            inFlight.acquire();
+            int call = i;
+            long callStart = System.nanoTime();
+            asyncClient.readBlog(request, new StreamObserver<ReadBlogResponse>() {
+                @Override
+                public void onNext(ReadBlogResponse value) {
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    if (Status.fromThrowable(t).getCode() == Status.Code.RESOURCE_EXHAUSTED) {
+                        rejected.incrementAndGet();
+                    } else {
+                        failures.incrementAndGet();
+                    }
+                    onCompleted();
+                }
+
+                @Override
+                public void onCompleted() {
+                    latencies[call] = System.nanoTime() - callStart;
+                    inFlight.release();
+                    done.countDown();
+                }
+            });
+        }
+
+        done.await();
+        return failures.get();
+    }
+
+    private static long percentile(long[] sortedLatencies, double percentile) {
+        int index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+        return sortedLatencies[Math.max(index, 0)];
+    }
+}
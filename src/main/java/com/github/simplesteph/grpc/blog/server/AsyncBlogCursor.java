@@ -0,0 +1,23 @@
+package com.github.simplesteph.grpc.blog.server;
+
+import com.proto.blog.Blog;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The result of a listing, fetched from the store one batch at a time. It must be closed once no longer used.
+ */
+public interface AsyncBlogCursor extends Closeable {
+
+    /**
+     * Fetches the next batch of blogs, only call it once the previous batch has arrived.
+     *
+     * @return a future of the next blogs, of an empty list once all the blogs have been fetched
+     */
+    CompletableFuture<List<Blog>> nextBatch();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,58 @@
+package com.github.simplesteph.grpc.blog.server;
+
+import com.proto.blog.Blog;
+import com.proto.blog.CreateBlogResult;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The non-blocking counterpart of {@link BlogRepository}, used by {@link BlogServiceImpl}.
+ * Every method returns right away, with a future completed once the store has answered.
+ * The futures may complete on a thread of the store, so callbacks must not block.
+ */
+public interface AsyncBlogRepository extends Closeable {
+
+    /**
+     * @see BlogRepository#create(Blog)
+     */
+    CompletableFuture<Blog> create(Blog blog);
+
+    /**
+     * @see BlogRepository#createAll(List)
+     */
+    CompletableFuture<List<CreateBlogResult>> createAll(List<Blog> blogs);
+
+    /**
+     * @return a future of the blog, or of null if there is no blog with this id
+     * @see BlogRepository#read(String, BlogReadMask)
+     */
+    CompletableFuture<Blog> read(String blogId, BlogReadMask readMask);
+
+    /**
+     * @return a future of the blog as stored, of null if there is no blog with this id,
+     * or failed with a {@link BlogVersionConflictException}
+     * @see BlogRepository#update(Blog)
+     */
+    CompletableFuture<Blog> update(Blog blog);
+
+    /**
+     * @return a future of false if there is no blog with this id, or failed with a {@link BlogVersionConflictException}
+     * @see BlogRepository#delete(String, long)
+     */
+    CompletableFuture<Boolean> delete(String blogId, long expectedVersion);
+
+    /**
+     * @see BlogRepository#list(BlogQuery)
+     */
+    AsyncBlogCursor list(BlogQuery query);
+
+    /**
+     * @see BlogRepository#watch(String)
+     */
+    BlogEventStream watch(String resumeToken);
+
+    @Override
+    void close();
+}
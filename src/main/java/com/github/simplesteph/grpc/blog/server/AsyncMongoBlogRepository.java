@@ -0,0 +1,297 @@
+package com.github.simplesteph.grpc.blog.server;
+
+import com.github.simplesteph.grpc.common.Deadlines;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.async.AsyncBatchCursor;
+import com.mongodb.async.SingleResultCallback;
+import com.mongodb.async.client.ChangeStreamIterable;
+import com.mongodb.async.client.MongoClient;
+import com.mongodb.async.client.MongoClients;
+import com.mongodb.async.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import com.proto.blog.Blog;
+import com.proto.blog.BlogEvent;
+import com.proto.blog.CreateBlogResult;
+import io.grpc.Context;
+import io.grpc.Deadline;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.simplesteph.grpc.blog.server.MongoBlogDocuments.decodeResumeToken;
+import static com.github.simplesteph.grpc.blog.server.MongoBlogDocuments.documentToBlog;
+import static com.github.simplesteph.grpc.blog.server.MongoBlogDocuments.listBatchSize;
+import static com.github.simplesteph.grpc.blog.server.MongoBlogDocuments.listFilter;
+import static com.github.simplesteph.grpc.blog.server.MongoBlogDocuments.listIndex;
+import static com.github.simplesteph.grpc.blog.server.MongoBlogDocuments.newDocument;
+import static com.github.simplesteph.grpc.blog.server.MongoBlogDocuments.replacementOf;
+import static com.github.simplesteph.grpc.blog.server.MongoBlogDocuments.toEvent;
+import static com.github.simplesteph.grpc.blog.server.MongoBlogDocuments.toProjection;
+import static com.github.simplesteph.grpc.blog.server.MongoBlogDocuments.versionFilter;
+import static com.mongodb.client.model.Filters.eq;
+
+/**
+ * Stores the blogs in the "blog" collection of the "mydb" MongoDB database, with the asynchronous driver.
+ * No thread waits on MongoDB: the futures complete from the callbacks of the driver, so the number of
+ * calls in flight is bounded by the connection pool of the driver rather than by a thread pool.
+ */
+public class AsyncMongoBlogRepository implements AsyncBlogRepository {
+
+    private final MongoClient mongoClient;
+    private final MongoCollection<Document> collection;
+
+    public AsyncMongoBlogRepository(String connectionString) {
+        this.mongoClient = MongoClients.create(connectionString);
+        this.collection = mongoClient.getDatabase("mydb").getCollection("blog");
+    }
+
+    /**
+     * Creates the indexes used by list, MongoDB does nothing if they already exist.
+     */
+    public CompletableFuture<String> createIndexes() {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        collection.createIndex(listIndex(), completing(future));
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<Blog> create(Blog blog) {
+        Document doc = newDocument(blog);
+
+        CompletableFuture<Void> inserted = new CompletableFuture<>();
+        collection.insertOne(doc, completing(inserted));
+
+        // the driver sets the generated _id on the document before sending it
+        return inserted.thenApply(ignored -> blog.toBuilder()
+                .setId(doc.getObjectId("_id").toString())
+                .setVersion(1L)
+                .build());
+    }
+
+    @Override
+    public CompletableFuture<List<CreateBlogResult>> createAll(List<Blog> blogs) {
+        MongoBlogDocuments.BulkCreate bulk = new MongoBlogDocuments.BulkCreate(blogs);
+        if (bulk.writes.isEmpty()) {
+            return CompletableFuture.completedFuture(bulk.results());
+        }
+
+        CompletableFuture<List<CreateBlogResult>> future = new CompletableFuture<>();
+        // unordered, so a failed write doesn't stop the ones after it
+        collection.bulkWrite(bulk.writes, new BulkWriteOptions().ordered(false), (result, t) -> {
+            if (t instanceof MongoBulkWriteException) {
+                bulk.failWrites((MongoBulkWriteException) t);
+            } else if (t != null) {
+                bulk.failAll(t);
+            }
+            future.complete(bulk.results());
+        });
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<Blog> read(String blogId, BlogReadMask readMask) {
+        if (!ObjectId.isValid(blogId)) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<Document> future = new CompletableFuture<>();
+        collection.find(eq("_id", new ObjectId(blogId)))
+                .projection(toProjection(readMask))
+                .maxTime(Deadlines.remainingMillis(), TimeUnit.MILLISECONDS)
+                .first(completing(future));
+
+        return future.thenApply(result -> result == null ? null : documentToBlog(result));
+    }
+
+    @Override
+    public CompletableFuture<Blog> update(Blog blog) {
+        String blogId = blog.getId();
+        if (!ObjectId.isValid(blogId)) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // the conflict check runs on a driver thread, where the context of the call is not current
+        Deadline deadline = Context.current().getDeadline();
+
+        // one round trip that replaces the fields, bumps the version and returns the stored document
+        CompletableFuture<Document> future = new CompletableFuture<>();
+        collection.findOneAndUpdate(
+                versionFilter(blogId, blog.getVersion()),
+                replacementOf(blog),
+                new FindOneAndUpdateOptions()
+                        .returnDocument(ReturnDocument.AFTER)
+                        .maxTime(Deadlines.remainingMillis(deadline), TimeUnit.MILLISECONDS),
+                completing(future));
+
+        return future.thenCompose(result -> result != null
+                ? CompletableFuture.completedFuture(documentToBlog(result))
+                : checkVersionConflict(blogId, blog.getVersion(), deadline).thenApply(ignored -> null));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> delete(String blogId, long expectedVersion) {
+        if (!ObjectId.isValid(blogId)) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        Deadline deadline = Context.current().getDeadline();
+
+        CompletableFuture<Long> deletedCount = new CompletableFuture<>();
+        collection.deleteOne(versionFilter(blogId, expectedVersion),
+                (result, t) -> complete(deletedCount, result == null ? null : result.getDeletedCount(), t));
+
+        return deletedCount.thenCompose(count -> count > 0
+                ? CompletableFuture.completedFuture(true)
+                : checkVersionConflict(blogId, expectedVersion, deadline).thenApply(ignored -> false));
+    }
+
+    /**
+     * Called when a write matched nothing: fails with a {@link BlogVersionConflictException} if the blog
+     * exists at another version. This extra round trip only happens on the failure path.
+     */
+    private CompletableFuture<Void> checkVersionConflict(String blogId, long expectedVersion, Deadline deadline) {
+        if (expectedVersion <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<Long> count = new CompletableFuture<>();
+        collection.countDocuments(eq("_id", new ObjectId(blogId)),
+                new CountOptions().maxTime(Deadlines.remainingMillis(deadline), TimeUnit.MILLISECONDS),
+                completing(count));
+
+        return count.thenAccept(found -> {
+            if (found > 0) {
+                throw new BlogVersionConflictException(blogId, expectedVersion);
+            }
+        });
+    }
+
+    @Override
+    public AsyncBlogCursor list(BlogQuery query) {
+        CompletableFuture<AsyncBatchCursor<Document>> cursor = new CompletableFuture<>();
+        collection.find(listFilter(query))
+                .projection(toProjection(query.getReadMask()))
+                .sort(Sorts.descending("_id"))
+                .limit(query.getPageSize())
+                .batchSize(listBatchSize(query))
+                .maxTime(Deadlines.remainingMillis(), TimeUnit.MILLISECONDS)
+                .batchCursor(completing(cursor));
+
+        return new AsyncBlogCursor() {
+            @Override
+            public CompletableFuture<List<Blog>> nextBatch() {
+                return cursor.thenCompose(documents -> {
+                    CompletableFuture<List<Document>> batch = new CompletableFuture<>();
+                    if (documents.isClosed()) {
+                        batch.complete(null);
+                    } else {
+                        documents.next(completing(batch));
+                    }
+                    return batch;
+                }).thenApply(batch -> {
+                    // the driver answers null once the cursor is exhausted
+                    if (batch == null) {
+                        return Collections.emptyList();
+                    }
+                    List<Blog> blogs = new ArrayList<>(batch.size());
+                    for (Document document : batch) {
+                        blogs.add(documentToBlog(document));
+                    }
+                    return blogs;
+                });
+            }
+
+            @Override
+            public void close() {
+                cursor.thenAccept(AsyncBatchCursor::close);
+            }
+        };
+    }
+
+    /**
+     * Watches the blog collection with a change stream, this needs MongoDB to run as a replica set.
+     */
+    @Override
+    public BlogEventStream watch(String resumeToken) {
+        ChangeStreamIterable<Document> changes = collection.watch()
+                .fullDocument(FullDocument.UPDATE_LOOKUP)
+                .batchSize(MongoBlogDocuments.LIST_BATCH_SIZE);
+        if (!resumeToken.isEmpty()) {
+            changes.resumeAfter(decodeResumeToken(resumeToken));
+        }
+
+        CompletableFuture<AsyncBatchCursor<ChangeStreamDocument<Document>>> cursor = new CompletableFuture<>();
+        changes.batchCursor(completing(cursor));
+
+        return new BlogEventStream() {
+            @Override
+            public CompletableFuture<List<BlogEvent>> nextBatch() {
+                return cursor.thenCompose(AsyncMongoBlogRepository::nextEvents);
+            }
+
+            @Override
+            public void close() {
+                cursor.thenAccept(AsyncBatchCursor::close);
+            }
+        };
+    }
+
+    // the driver only answers once there are changes
+    private static CompletableFuture<List<BlogEvent>> nextEvents(AsyncBatchCursor<ChangeStreamDocument<Document>> changes) {
+        if (changes.isClosed()) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+
+        CompletableFuture<List<ChangeStreamDocument<Document>>> batch = new CompletableFuture<>();
+        changes.next(completing(batch));
+
+        return batch.thenCompose(batchChanges -> {
+            if (batchChanges == null) {
+                return CompletableFuture.completedFuture(Collections.emptyList());
+            }
+            List<BlogEvent> events = new ArrayList<>(batchChanges.size());
+            for (ChangeStreamDocument<Document> change : batchChanges) {
+                if (change.getOperationType() == OperationType.INVALIDATE) {
+                    // the collection was dropped or renamed, the events before it are still sent
+                    changes.close();
+                    break;
+                }
+                BlogEvent event = toEvent(change);
+                if (event != null) {
+                    events.add(event);
+                }
+            }
+            // a batch with no blog changes is skipped, an empty list would end the watch
+            return events.isEmpty() ? nextEvents(changes) : CompletableFuture.completedFuture(events);
+        });
+    }
+
+    @Override
+    public void close() {
+        mongoClient.close();
+    }
+
+    private static <T> SingleResultCallback<T> completing(CompletableFuture<T> future) {
+        return (result, t) -> complete(future, result, t);
+    }
+
+    private static <T> void complete(CompletableFuture<T> future, T result, Throwable t) {
+        if (t != null) {
+            future.completeExceptionally(t);
+        } else {
+            future.complete(result);
+        }
+    }
+}
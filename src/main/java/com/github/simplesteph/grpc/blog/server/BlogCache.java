@@ -0,0 +1,176 @@
+package com.github.simplesteph.grpc.blog.server;
+
+import com.github.simplesteph.grpc.server.ServerMetrics;
+import com.proto.blog.Blog;
+import org.bson.types.ObjectId;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded in-process cache of blogs keyed by id, with least recently used and time to live eviction.
+ * <p>
+ * The entries are spread over segments that each have their own lock, so concurrent reads of
+ * different blogs rarely contend. Every segment keeps an invalidation counter: a value loaded from
+ * the database is only cached if its blog was not invalidated while the load was in flight, so an
+ * update racing with a cache miss can't leave a stale blog in the cache.
+ * <p>
+ * The ids are keyed as {@link #normalizeId} writes them, so a blog read, updated or deleted with its id
+ * in another case still hits the same entry.
+ * <p>
+ * Its counters are served as the blog_cache_* metrics once added to a server's metrics.
+ */
+public class BlogCache implements ServerMetrics.Source {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final long ttlNanos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public BlogCache(int maximumSize, long ttl, TimeUnit unit) {
+        if (maximumSize < SEGMENTS) {
+            throw new IllegalArgumentException("The maximum size must be at least " + SEGMENTS);
+        }
+        this.ttlNanos = unit.toNanos(ttl);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maximumSize / SEGMENTS);
+        }
+    }
+
+    /**
+     * The id of a blog as the stores write it: the hex digits of an ObjectId are read in any case.
+     * An id that is not an ObjectId is returned as is, no store has such a blog.
+     */
+    public static String normalizeId(String blogId) {
+        return ObjectId.isValid(blogId) ? new ObjectId(blogId).toHexString() : blogId;
+    }
+
+    /**
+     * Returns the cached blog, or null if it is not cached or has expired.
+     */
+    public Blog get(String blogId) {
+        blogId = normalizeId(blogId);
+        Segment segment = segmentFor(blogId);
+        synchronized (segment) {
+            Entry entry = segment.entries.get(blogId);
+            if (entry != null && System.nanoTime() - entry.writtenAt > ttlNanos) {
+                segment.entries.remove(blogId);
+                evictions.increment();
+                entry = null;
+            }
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return entry.blog;
+        }
+    }
+
+    /**
+     * Returns the token to pass to {@link #put} once the blog has been loaded from the database.
+     */
+    public long loadToken(String blogId) {
+        Segment segment = segmentFor(normalizeId(blogId));
+        synchronized (segment) {
+            return segment.invalidations;
+        }
+    }
+
+    /**
+     * Caches a blog loaded from the database, unless it was invalidated since {@code loadToken} was taken.
+     */
+    public void put(Blog blog, long loadToken) {
+        String blogId = normalizeId(blog.getId());
+        Segment segment = segmentFor(blogId);
+        synchronized (segment) {
+            if (segment.invalidations == loadToken) {
+                segment.entries.put(blogId, new Entry(blog, System.nanoTime()));
+            }
+        }
+    }
+
+    /**
+     * Drops the cached blog, to be called whenever the blog is updated or deleted.
+     */
+    public void invalidate(String blogId) {
+        blogId = normalizeId(blogId);
+        Segment segment = segmentFor(blogId);
+        synchronized (segment) {
+            segment.invalidations++;
+            segment.entries.remove(blogId);
+        }
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public void writePrometheus(StringBuilder out) {
+        ServerMetrics.header(out, "blog_cache_hits_total", "counter", "Blog reads served from the cache.");
+        ServerMetrics.sample(out, "blog_cache_hits_total", hitCount());
+        ServerMetrics.header(out, "blog_cache_misses_total", "counter", "Blog reads that were not cached, or expired.");
+        ServerMetrics.sample(out, "blog_cache_misses_total", missCount());
+        ServerMetrics.header(out, "blog_cache_evictions_total", "counter", "Blogs dropped from the cache to make room or because they expired.");
+        ServerMetrics.sample(out, "blog_cache_evictions_total", evictionCount());
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment segmentFor(String blogId) {
+        int hash = blogId.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    private static class Entry {
+        final Blog blog;
+        final long writtenAt;
+
+        Entry(Blog blog, long writtenAt) {
+            this.blog = blog;
+            this.writtenAt = writtenAt;
+        }
+    }
+
+    private class Segment {
+        final LinkedHashMap<String, Entry> entries;
+        long invalidations = 0;
+
+        Segment(int maximumSize) {
+            // access order, so the eldest entry is the least recently used one
+            this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    if (size() > maximumSize) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+    }
+}
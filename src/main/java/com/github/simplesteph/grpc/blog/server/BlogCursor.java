@@ -0,0 +1,15 @@
+package com.github.simplesteph.grpc.blog.server;
+
+import com.proto.blog.Blog;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * The result of a listing, read lazily from the store. It must be closed once no longer used.
+ */
+public interface BlogCursor extends Iterator<Blog>, Closeable {
+
+    @Override
+    void close();
+}
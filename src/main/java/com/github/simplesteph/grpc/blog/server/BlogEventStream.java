@@ -0,0 +1,27 @@
+package com.github.simplesteph.grpc.blog.server;
+
+import com.proto.blog.BlogEvent;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The changes made to the blogs, in the order they were made. It must be closed once no longer used.
+ */
+public interface BlogEventStream extends Closeable {
+
+    /**
+     * Waits for the next changes, only call it once the previous batch has arrived.
+     *
+     * @return a future of the next events, completed as soon as there is at least one,
+     * or of an empty list if the store can no longer be watched
+     */
+    CompletableFuture<List<BlogEvent>> nextBatch();
+
+    /**
+     * Can be called while waiting for a batch, and more than once.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,51 @@
+package com.github.simplesteph.grpc.blog.server;
+
+import org.bson.types.ObjectId;
+
+/**
+ * A validated ListBlog request: blogs are listed newest first, so a page resumes with the ids
+ * smaller than the last one sent.
+ */
+public final class BlogQuery {
+
+    private final int pageSize;
+    private final ObjectId afterId;
+    private final String authorId;
+    private final String titlePrefix;
+    private final BlogReadMask readMask;
+
+    /**
+     * @param pageSize    maximum number of blogs, 0 means no limit
+     * @param afterId     only list the blogs older than this one, null to start with the newest blog
+     * @param authorId    only list the blogs of this author, empty for all the authors
+     * @param titlePrefix only list the blogs whose title starts with this prefix, empty for all the titles
+     * @param readMask    the fields to return
+     */
+    public BlogQuery(int pageSize, ObjectId afterId, String authorId, String titlePrefix, BlogReadMask readMask) {
+        this.pageSize = pageSize;
+        this.afterId = afterId;
+        this.authorId = authorId;
+        this.titlePrefix = titlePrefix;
+        this.readMask = readMask;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public ObjectId getAfterId() {
+        return afterId;
+    }
+
+    public String getAuthorId() {
+        return authorId;
+    }
+
+    public String getTitlePrefix() {
+        return titlePrefix;
+    }
+
+    public BlogReadMask getReadMask() {
+        return readMask;
+    }
+}
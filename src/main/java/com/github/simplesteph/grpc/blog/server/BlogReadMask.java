@@ -0,0 +1,95 @@
+package com.github.simplesteph.grpc.blog.server;
+
+import com.google.protobuf.FieldMask;
+import com.proto.blog.Blog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The Blog fields a read should return, validated from the read_mask of a request.
+ * The id is always returned, listBlog needs it for the page tokens.
+ */
+public final class BlogReadMask {
+
+    public static final BlogReadMask ALL = new BlogReadMask(true, Collections.emptyList());
+
+    private final boolean all;
+    private final List<String> fields;
+
+    private BlogReadMask(boolean all, List<String> fields) {
+        this.all = all;
+        this.fields = fields;
+    }
+
+    /**
+     * Validates a field mask on Blog, an empty mask selects all the fields.
+     *
+     * @throws IllegalArgumentException if the mask holds a path that is not a Blog field
+     */
+    public static BlogReadMask of(FieldMask readMask) {
+        if (readMask.getPathsCount() == 0) {
+            return ALL;
+        }
+
+        List<String> fields = new ArrayList<>();
+        for (String path : readMask.getPathsList()) {
+            switch (path) {
+                case "id":
+                    // always returned
+                    break;
+                case "author_id":
+                case "title":
+                case "content":
+                case "version":
+                    fields.add(path);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown field in the read mask: " + path);
+            }
+        }
+        return new BlogReadMask(false, Collections.unmodifiableList(fields));
+    }
+
+    public boolean isAll() {
+        return all;
+    }
+
+    /**
+     * The selected fields besides the id, named as in the database. Empty when {@link #isAll()}.
+     */
+    public List<String> fields() {
+        return fields;
+    }
+
+    /**
+     * Clears the fields of a complete blog that are not selected by this mask.
+     */
+    public Blog apply(Blog blog) {
+        if (all) {
+            return blog;
+        }
+
+        Blog.Builder builder = Blog.newBuilder().setId(blog.getId());
+        for (String field : fields) {
+            switch (field) {
+                case "author_id":
+                    builder.setAuthorId(blog.getAuthorId());
+                    break;
+                case "title":
+                    builder.setTitle(blog.getTitle());
+                    break;
+                case "content":
+                    builder.setContent(blog.getContent());
+                    break;
+                case "version":
+                    builder.setVersion(blog.getVersion());
+                    break;
+                default:
+                    break;
+            }
+        }
+        return builder.build();
+    }
+}
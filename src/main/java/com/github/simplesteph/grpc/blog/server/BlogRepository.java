@@ -0,0 +1,69 @@
+package com.github.simplesteph.grpc.blog.server;
+
+import com.proto.blog.Blog;
+import com.proto.blog.CreateBlogResult;
+
+import java.io.Closeable;
+import java.util.List;
+
+/**
+ * Where the blogs are stored. Blog ids are the hex strings of {@link org.bson.types.ObjectId}s,
+ * an id that is not valid is treated like an id that matches no blog.
+ */
+public interface BlogRepository extends Closeable {
+
+    /**
+     * Stores a new blog, ignoring its id and version.
+     *
+     * @return the blog with its generated id and version 1
+     */
+    Blog create(Blog blog);
+
+    /**
+     * Stores a batch of blogs in one go: the blogs without id are created, the others are created or replaced.
+     * A blog that fails does not prevent the others from being stored.
+     *
+     * @return one result per blog, in the same order
+     */
+    List<CreateBlogResult> createAll(List<Blog> blogs);
+
+    /**
+     * @return the blog with the fields selected by the read mask, or null if there is no blog with this id
+     */
+    Blog read(String blogId, BlogReadMask readMask);
+
+    /**
+     * Replaces the blog with the same id, in a single round trip. If the blog has a version,
+     * the blog is only replaced if the stored blog is still at that version.
+     *
+     * @return the blog as stored, with its new version, or null if there is no blog with this id
+     * @throws BlogVersionConflictException if the stored blog is at another version
+     */
+    Blog update(Blog blog);
+
+    /**
+     * Deletes a blog, in a single round trip.
+     *
+     * @param expectedVersion only delete the blog if it is at this version, 0 to delete it whatever its version
+     * @return false if there is no blog with this id
+     * @throws BlogVersionConflictException if the stored blog is at another version
+     */
+    boolean delete(String blogId, long expectedVersion);
+
+    /**
+     * Lists the blogs matching the query, newest first.
+     */
+    BlogCursor list(BlogQuery query);
+
+    /**
+     * Watches the changes made to the blogs. Waiting for changes is never done on the calling thread.
+     *
+     * @param resumeToken the resume token of the last event received, to get the events made after it,
+     *                    or empty to only get the events made from now on
+     * @throws IllegalArgumentException if the resume token is not valid
+     */
+    BlogEventStream watch(String resumeToken);
+
+    @Override
+    void close();
+}
@@ -1,27 +1,105 @@
 package com.github.simplesteph.grpc.blog.server;
 
-import io.grpc.Server;
-import io.grpc.ServerBuilder;
+import com.github.simplesteph.grpc.common.Logging;
+import com.github.simplesteph.grpc.server.ServerConfig;
+import com.github.simplesteph.grpc.server.ServerLauncher;
 import io.grpc.protobuf.services.ProtoReflectionService;
 
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
 
 public class BlogServer {
 
+    private static final Logger logger = Logger.getLogger(BlogServer.class.getName());
+
     public static void main(String[] args) throws IOException, InterruptedException {
-        Server server = ServerBuilder.forPort(50051)
-                .addService(new BlogServiceImpl())
+        // -Dlog.level=debug logs every call
+        Logging.configure();
+        AsyncBlogRepository repository = createAsyncRepository();
+
+        // up to 10000 blogs are kept in memory for one minute
+        BlogCache blogCache = new BlogCache(10_000, 1, TimeUnit.MINUTES);
+        BlogServiceImpl blogService = new BlogServiceImpl(repository, blogCache);
+
+        ServerLauncher launcher = new ServerLauncher(ServerConfig.fromSystemProperties(50051))
+                .addService(blogService)
                 .addService(ProtoReflectionService.newInstance()) // reflection
-                .build();
+                .addMetricsSource(blogCache)
+                .addMetricsSource(blogService);
 
-        server.start();
+        launcher.start();
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            System.out.println("Received Shutdown Request");
-            server.shutdown();
-            System.out.println("Successfully stopped the server");
+            logger.info("Received Shutdown Request");
+            launcher.shutdown();
+            repository.close();
+            logger.info("Blog cache hits: " + blogCache.hitCount()
+                    + ", misses: " + blogCache.missCount()
+                    + ", evictions: " + blogCache.evictionCount());
+            logger.info("Successfully stopped the server");
         }));
 
-        server.awaitTermination();
+        launcher.awaitTermination();
+    }
+
+    /**
+     * How the service waits on the store is picked with the blog.mode system property:
+     * "blocking" (default) calls the store on the gRPC threads,
+     * "async" uses the asynchronous MongoDB driver, so no thread waits on MongoDB,
+     * "virtual" calls the store on virtual threads, this needs JDK 21 or later.
+     * The embedded store has no asynchronous API, in async mode it is called on the gRPC threads.
+     */
+    public static AsyncBlogRepository createAsyncRepository() throws IOException {
+        String mode = System.getProperty("blog.mode", "blocking");
+        switch (mode) {
+            case "blocking":
+                return new ExecutorBlogRepository(createRepository(), ExecutorBlogRepository.DIRECT);
+            case "async":
+                if (!"mongo".equals(System.getProperty("blog.store", "mongo"))) {
+                    return new ExecutorBlogRepository(createRepository(), ExecutorBlogRepository.DIRECT);
+                }
+                AsyncMongoBlogRepository mongoRepository = new AsyncMongoBlogRepository(
+                        System.getProperty("blog.mongo.uri", "mongodb://localhost:27017"));
+                mongoRepository.createIndexes().join();
+                return mongoRepository;
+            case "virtual":
+                return new ExecutorBlogRepository(createRepository(), newVirtualThreadExecutor());
+            default:
+                throw new IllegalArgumentException("Unknown blog mode: " + mode);
+        }
+    }
+
+    // looked up by reflection, the project still compiles for Java 8
+    private static Executor newVirtualThreadExecutor() {
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads need JDK 21 or later, running on "
+                    + System.getProperty("java.version"), e);
+        }
+    }
+
+    /**
+     * The store is picked with the blog.store system property:
+     * "mongo" (default) connects to the blog.mongo.uri MongoDB, by default on localhost,
+     * "embedded" keeps the blogs in the blog.store.path file, by default blog-store.log.
+     */
+    private static BlogRepository createRepository() throws IOException {
+        String store = System.getProperty("blog.store", "mongo");
+        switch (store) {
+            case "mongo":
+                MongoBlogRepository mongoRepository = new MongoBlogRepository(
+                        System.getProperty("blog.mongo.uri", "mongodb://localhost:27017"));
+                mongoRepository.createIndexes();
+                return mongoRepository;
+            case "embedded":
+                return new EmbeddedBlogRepository(Paths.get(System.getProperty("blog.store.path", "blog-store.log")));
+            default:
+                throw new IllegalArgumentException("Unknown blog store: " + store);
+        }
     }
 }
@@ -1,201 +1,707 @@
 package com.github.simplesteph.grpc.blog.server;
 
-import com.mongodb.client.MongoClient;
-import com.mongodb.client.MongoClients;
-import com.mongodb.client.MongoCollection;
-import com.mongodb.client.MongoDatabase;
-import com.mongodb.client.result.DeleteResult;
+import com.github.simplesteph.grpc.common.SingleFlight;
+import com.github.simplesteph.grpc.server.ServerMetrics;
 import com.proto.blog.*;
+import io.grpc.Context;
 import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
-import org.bson.Document;
 import org.bson.types.ObjectId;
 
-import static com.mongodb.client.model.Filters.eq;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The blog service never waits on the store itself: every call to the repository returns a future
+ * and the response is sent when it completes. With a blocking repository run on the calling thread
+ * (see {@link ExecutorBlogRepository#DIRECT}) the futures are already complete, so it behaves like a
+ * synchronous service. With {@link AsyncMongoBlogRepository} no gRPC thread is held while MongoDB works.
+ * <p>
+ * How many blog reads went to the store and how many joined one in flight are served as the blog_reads_* metrics.
+ */
+public class BlogServiceImpl extends BlogServiceGrpc.BlogServiceImplBase implements ServerMetrics.Source {
+
+    // createBlogs writes the blogs in batches of at most this size
+    private static final int CREATE_BATCH_SIZE = 1000;
+    // and writes a batch that is not full once it waited this long
+    private static final long CREATE_FLUSH_DELAY_MILLIS = 50;
+
+    private static final Logger logger = Logger.getLogger(BlogServiceImpl.class.getName());
+
+    private final AsyncBlogRepository repository;
+    private final BlogCache blogCache;
+    // the reads in flight of the blogs not cached yet
+    private final SingleFlight<String, Blog> blogReads = new SingleFlight<>();
+
+    // runs the flush timers of createBlogs
+    private final ScheduledExecutorService flushScheduler = Executors.newScheduledThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "blog-create-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public BlogServiceImpl(BlogRepository repository) {
+        this(new ExecutorBlogRepository(repository, ExecutorBlogRepository.DIRECT));
+    }
 
-public class BlogServiceImpl extends BlogServiceGrpc.BlogServiceImplBase {
+    public BlogServiceImpl(AsyncBlogRepository repository) {
+        this(repository, new BlogCache(10_000, 1, TimeUnit.MINUTES));
+    }
 
-    private MongoClient mongoClient = MongoClients.create("mongodb://localhost:27017");
-    private MongoDatabase database = mongoClient.getDatabase("mydb");
-    private MongoCollection<Document> collection = database.getCollection("blog");
+    public BlogServiceImpl(AsyncBlogRepository repository, BlogCache blogCache) {
+        this.repository = repository;
+        this.blogCache = blogCache;
+    }
 
+    @Override
+    public void writePrometheus(StringBuilder out) {
+        ServerMetrics.header(out, "blog_reads_executed_total", "counter", "Blog reads that were not cached and went to the store.");
+        ServerMetrics.sample(out, "blog_reads_executed_total", blogReads.executionCount());
+        ServerMetrics.header(out, "blog_reads_coalesced_total", "counter", "Blog reads that joined a read of the same blog already in flight.");
+        ServerMetrics.sample(out, "blog_reads_coalesced_total", blogReads.coalescedCount());
+    }
 
     @Override
     public void createBlog(CreateBlogRequest request, StreamObserver<CreateBlogResponse> responseObserver) {
 
-        System.out.println("Received Create Blog request");
+        logger.fine("Received Create Blog request");
 
         Blog blog = request.getBlog();
 
-        Document doc = new Document("author_id", blog.getAuthorId())
-                .append("title", blog.getTitle())
-                .append("content", blog.getContent());
-
-        System.out.println("Inserting blog...");
-        // we insert (create) the document in mongoDB
-        collection.insertOne(doc);
+        logger.fine("Inserting blog...");
+        // we insert (create) the blog, the repository generates its id
+        repository.create(blog).whenComplete((created, error) -> {
+            if (error != null) {
+                responseObserver.onError(
+                        Status.INTERNAL
+                                .withDescription("Failed to create the blog")
+                                .augmentDescription(causeOf(error).getLocalizedMessage())
+                                .asRuntimeException()
+                );
+                return;
+            }
 
+            logger.log(Level.FINE, "Inserted blog: {0}", created.getId());
 
-        // we retrieve the MongoDB generated ID
-        String id = doc.getObjectId("_id").toString();
-        System.out.println("Inserted blog: " + id);
+            CreateBlogResponse response = CreateBlogResponse.newBuilder()
+                    .setBlog(created)
+                    .build();
 
-        CreateBlogResponse response = CreateBlogResponse.newBuilder()
-                .setBlog(blog.toBuilder().setId(id).build())
-                .build();
+            responseObserver.onNext(response);
 
-        responseObserver.onNext(response);
+            responseObserver.onCompleted();
+        });
 
-        responseObserver.onCompleted();
+    }
 
+    @Override
+    public StreamObserver<CreateBlogRequest> createBlogs(StreamObserver<CreateBlogsResponse> responseObserver) {
+        logger.fine("Received Create Blogs request");
+
+        ServerCallStreamObserver<CreateBlogsResponse> serverObserver =
+                (ServerCallStreamObserver<CreateBlogsResponse>) responseObserver;
+        // we ask for the blogs ourselves, to stop reading them while a full batch waits to be written
+        serverObserver.disableAutoInboundFlowControl();
+
+        CreateBlogsObserver requestObserver = new CreateBlogsObserver(serverObserver);
+        // a client slow to read the results holds the next batch back
+        serverObserver.setOnReadyHandler(requestObserver::onReady);
+        // including the first one
+        serverObserver.request(1);
+        return requestObserver;
     }
 
+    /**
+     * Groups the blogs of a createBlogs stream into batches, each written to the repository in one go
+     * and answered with one response holding its results.
+     * A batch is written when it is full, or when its flush timer fires, whichever comes first.
+     * One batch is written at a time so the results stay in order, and only once the client has taken the results
+     * of the previous one: until then we stop requesting blogs when the next batch is full, so the server holds
+     * at most a batch of blogs and one of results, however long the stream.
+     * The stream, the flush timer, the onReady handler and the repository callbacks run on different threads,
+     * hence the lock.
+     */
+    private class CreateBlogsObserver implements StreamObserver<CreateBlogRequest> {
+
+        private final ServerCallStreamObserver<CreateBlogsResponse> responseObserver;
+
+        // guarded by this
+        private List<Blog> batch = new ArrayList<>();
+        private long created = 0;
+        private ScheduledFuture<?> flushTimer;
+        private boolean flushing = false;
+        private boolean paused = false;
+        private boolean halfClosed = false;
+        private boolean done = false;
+
+        CreateBlogsObserver(ServerCallStreamObserver<CreateBlogsResponse> responseObserver) {
+            this.responseObserver = responseObserver;
+        }
+
+        @Override
+        public synchronized void onNext(CreateBlogRequest value) {
+            if (done) {
+                // a write failed, the call is already over
+                return;
+            }
+            batch.add(value.getBlog());
+
+            if (batch.size() < CREATE_BATCH_SIZE) {
+                scheduleFlush();
+                responseObserver.request(1);
+            } else if (canFlush()) {
+                flush();
+                responseObserver.request(1);
+            } else {
+                // resumed once the batch being written is done and its results sent
+                paused = true;
+            }
+        }
+
+        @Override
+        public synchronized void onError(Throwable t) {
+            // the client cancelled, the batches already written stay in the repository
+            done = true;
+            cancelFlushTimer();
+            batch.clear();
+        }
+
+        @Override
+        public synchronized void onCompleted() {
+            if (done) {
+                return;
+            }
+            halfClosed = true;
+            proceed();
+        }
+
+        synchronized void onReady() {
+            proceed();
+        }
+
+        private synchronized void flushOnTimer() {
+            flushTimer = null;
+            if (!done && canFlush()) {
+                flush();
+            }
+            // otherwise the timer is scheduled again once the client has read the last results
+        }
+
+        // the results of the previous batch are written and sent
+        private boolean canFlush() {
+            return !flushing && responseObserver.isReady();
+        }
+
+        // goes on once nothing holds the next batch back
+        private void proceed() {
+            if (done || !canFlush()) {
+                return;
+            }
+            if (halfClosed) {
+                flushOrFinish();
+            } else if (paused) {
+                paused = false;
+                flush();
+                responseObserver.request(1);
+            } else {
+                scheduleFlush();
+            }
+        }
+
+        private void scheduleFlush() {
+            if (flushTimer == null && !flushing && !batch.isEmpty()) {
+                flushTimer = flushScheduler.schedule(this::flushOnTimer, CREATE_FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void flush() {
+            cancelFlushTimer();
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            List<Blog> blogs = batch;
+            batch = new ArrayList<>();
+            flushing = true;
+
+            repository.createAll(blogs).whenComplete(this::onFlushed);
+        }
+
+        private synchronized void onFlushed(List<CreateBlogResult> results, Throwable error) {
+            flushing = false;
+            if (done) {
+                return;
+            }
+            if (error != null) {
+                done = true;
+                cancelFlushTimer();
+                batch.clear();
+                responseObserver.onError(
+                        Status.INTERNAL
+                                .withDescription("Failed to create the blogs")
+                                .augmentDescription(causeOf(error).getLocalizedMessage())
+                                .asRuntimeException()
+                );
+                return;
+            }
+
+            for (CreateBlogResult result : results) {
+                if (result.hasBlog()) {
+                    // upserts may replace a cached blog
+                    invalidate(result.getBlog().getId());
+                }
+            }
+            created += results.size();
+            responseObserver.onNext(CreateBlogsResponse.newBuilder().addAllResults(results).build());
+
+            // onReady calls us again if the client has not read enough of the results yet
+            proceed();
+        }
+
+        // once the client is done, writes what is left then ends the call
+        private void flushOrFinish() {
+            if (!batch.isEmpty()) {
+                flush();
+                return;
+            }
+
+            done = true;
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("Created " + created + " blogs");
+            }
+            responseObserver.onCompleted();
+        }
+
+        private void cancelFlushTimer() {
+            if (flushTimer != null) {
+                flushTimer.cancel(false);
+                flushTimer = null;
+            }
+        }
+    }
 
     @Override
     public void readBlog(ReadBlogRequest request, StreamObserver<ReadBlogResponse> responseObserver) {
-        System.out.println("Received Read Blog request");
+        logger.fine("Received Read Blog request");
 
-        String blogId = request.getBlogId();
-
-        System.out.println("Searching for a blog");
-        Document result = null;
+        // the reads of a blog share its cache entry and its loads whatever the case of its id
+        String blogId = BlogCache.normalizeId(request.getBlogId());
 
+        BlogReadMask readMask;
         try {
-            result = collection.find(eq("_id", new ObjectId(blogId)))
-                    .first();
-        } catch (Exception e) {
+            readMask = BlogReadMask.of(request.getReadMask());
+        } catch (IllegalArgumentException e) {
             responseObserver.onError(
-                    Status.NOT_FOUND
-                            .withDescription("The blog with the corresponding id was not found")
-                            .augmentDescription(e.getLocalizedMessage())
+                    Status.INVALID_ARGUMENT
+                            .withDescription(e.getMessage())
                             .asRuntimeException()
             );
+            return;
         }
 
-        if (result == null) {
-            System.out.println("Blog not found");
-            // we don't have a match
-            responseObserver.onError(
-                    Status.NOT_FOUND
-                            .withDescription("The blog with the corresponding id was not found")
-                            .asRuntimeException()
-            );
+        // hot blogs are served from memory, the cache holds them with all their fields
+        Blog cached = blogCache.get(blogId);
+        if (cached != null) {
+            responseObserver.onNext(ReadBlogResponse.newBuilder()
+                    .setBlog(readMask.apply(cached))
+                    .build());
+            responseObserver.onCompleted();
+            return;
+        }
+
+        logger.fine("Searching for a blog");
+        CompletableFuture<Blog> read;
+        if (readMask.isAll()) {
+            // the concurrent reads of a blog that is not cached share one read, which goes on while any of them waits
+            read = blogReads.execute(blogId, abandoned -> loadBlog(blogId));
+            Context.current().addListener(context -> read.cancel(false), Runnable::run);
         } else {
-            System.out.println("Blog found, sending response");
-            Blog blog = documentToBlog(result);
+            read = repository.read(blogId, readMask);
+        }
+        read.whenComplete((result, error) -> {
+            if (read.isCancelled()) {
+                // the client is gone, no one to answer
+                return;
+            }
+            if (error != null) {
+                responseObserver.onError(
+                        Status.INTERNAL
+                                .withDescription("Failed to read the blog")
+                                .augmentDescription(causeOf(error).getLocalizedMessage())
+                                .asRuntimeException()
+                );
+            } else if (result == null) {
+                logger.fine("Blog not found");
+                // we don't have a match
+                responseObserver.onError(
+                        Status.NOT_FOUND
+                                .withDescription("The blog with the corresponding id was not found")
+                                .asRuntimeException()
+                );
+            } else {
+                logger.fine("Blog found, sending response");
+                responseObserver.onNext(ReadBlogResponse.newBuilder().setBlog(result).build());
+
+                responseObserver.onCompleted();
+            }
+        });
 
-            responseObserver.onNext(ReadBlogResponse.newBuilder().setBlog(blog).build());
+    }
 
-            responseObserver.onCompleted();
+    /**
+     * Reads a complete blog and caches it. The read is shared by the calls waiting for it, so it is not bound
+     * by the deadline of the call that started it, and runs outside of its context.
+     */
+    private CompletableFuture<Blog> loadBlog(String blogId) {
+        long loadToken = blogCache.loadToken(blogId);
+        Context previous = Context.ROOT.attach();
+        try {
+            return repository.read(blogId, BlogReadMask.ALL).thenApply(blog -> {
+                if (blog != null) {
+                    blogCache.put(blog, loadToken);
+                }
+                return blog;
+            });
+        } finally {
+            Context.ROOT.detach(previous);
         }
+    }
 
+    /**
+     * Drops what is known of a blog, to be called whenever the blog is updated or deleted:
+     * the reads that start afterwards go to the repository.
+     */
+    private void invalidate(String blogId) {
+        blogCache.invalidate(blogId);
+        blogReads.forget(BlogCache.normalizeId(blogId));
     }
 
     @Override
     public void updateBlog(UpdateBlogRequest request, StreamObserver<UpdateBlogResponse> responseObserver) {
-        System.out.println("Received Update Blog request");
+        logger.fine("Received Update Blog request");
 
         Blog blog = request.getBlog();
 
         String blogId = blog.getId();
 
-        System.out.println("Searching for a blog so we can update it");
-        Document result = null;
+        logger.fine("Replacing blog in database...");
+        repository.update(blog).whenComplete((result, error) -> {
+            if (error != null) {
+                responseObserver.onError(writeError("Failed to update the blog", error));
+            } else if (result == null) {
+                logger.fine("Blog not found");
+                // we don't have a match
+                responseObserver.onError(
+                        Status.NOT_FOUND
+                                .withDescription("The blog with the corresponding id was not found")
+                                .asRuntimeException()
+                );
+            } else {
+                invalidate(blogId);
+
+                logger.fine("Replaced! Sending as a response");
+                responseObserver.onNext(
+                        UpdateBlogResponse.newBuilder()
+                                .setBlog(result)
+                                .build()
+                );
+
+                responseObserver.onCompleted();
+            }
+        });
+    }
 
+    // the page token is the url-safe base64 encoding of the last returned id
+    private static String encodePageToken(ObjectId lastId) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(lastId.toByteArray());
+    }
+
+    private static ObjectId decodePageToken(String pageToken) {
         try {
-            result = collection.find(eq("_id", new ObjectId(blogId)))
-                    .first();
-        } catch (Exception e) {
-            responseObserver.onError(
-                    Status.NOT_FOUND
-                            .withDescription("The blog with the corresponding id was not found")
-                            .augmentDescription(e.getLocalizedMessage())
-                            .asRuntimeException()
-            );
+            byte[] bytes = Base64.getUrlDecoder().decode(pageToken);
+            return bytes.length == 12 ? new ObjectId(bytes) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // futures wrap the exception of the repository in a CompletionException
+    private static Throwable causeOf(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private static RuntimeException writeError(String description, Throwable error) {
+        Throwable cause = causeOf(error);
+        if (cause instanceof BlogVersionConflictException) {
+            return Status.ABORTED
+                    .withDescription("The blog was modified since it was read")
+                    .augmentDescription(cause.getLocalizedMessage())
+                    .asRuntimeException();
         }
+        return Status.INTERNAL
+                .withDescription(description)
+                .augmentDescription(cause.getLocalizedMessage())
+                .asRuntimeException();
+    }
 
-        if (result == null) {
-            System.out.println("Blog not found");
-            // we don't have a match
+    @Override
+    public void deleteBlog(DeleteBlogRequest request, StreamObserver<DeleteBlogResponse> responseObserver) {
+        logger.fine("Received Delete Blog Request");
+
+        String blogId = request.getBlogId();
+        repository.delete(blogId, request.getVersion()).whenComplete((deleted, error) -> {
+            if (error != null) {
+                responseObserver.onError(writeError("Failed to delete the blog", error));
+            } else if (!deleted) {
+                logger.fine("Blog not found");
+                responseObserver.onError(
+                        Status.NOT_FOUND
+                                .withDescription("The blog with the corresponding id was not found")
+                                .asRuntimeException()
+                );
+            } else {
+                logger.fine("Blog was deleted");
+                invalidate(blogId);
+                responseObserver.onNext(DeleteBlogResponse.newBuilder()
+                        .setBlogId(blogId)
+                        .build());
+
+                responseObserver.onCompleted();
+            }
+        });
+
+    }
+
+    @Override
+    public void listBlog(ListBlogRequest request, StreamObserver<ListBlogResponse> responseObserver) {
+        logger.fine("Received List Blog Request");
+
+        if (request.getPageSize() < 0) {
             responseObserver.onError(
-                    Status.NOT_FOUND
-                            .withDescription("The blog with the corresponding id was not found")
+                    Status.INVALID_ARGUMENT
+                            .withDescription("The page size cannot be negative")
+                            .augmentDescription("Page size sent: " + request.getPageSize())
                             .asRuntimeException()
             );
-        } else {
-            Document replacement = new Document("author_id", blog.getAuthorId())
-                    .append("title", blog.getTitle())
-                    .append("content", blog.getContent())
-                    .append("_id", new ObjectId(blogId));
-
-            System.out.println("Replacing blog in database...");
+            return;
+        }
 
-            collection.replaceOne(eq("_id", result.getObjectId("_id")), replacement);
+        ObjectId afterId = null;
+        if (!request.getPageToken().isEmpty()) {
+            afterId = decodePageToken(request.getPageToken());
+            if (afterId == null) {
+                responseObserver.onError(
+                        Status.INVALID_ARGUMENT
+                                .withDescription("The page token is not valid")
+                                .augmentDescription("Page token sent: " + request.getPageToken())
+                                .asRuntimeException()
+                );
+                return;
+            }
+        }
 
-            System.out.println("Replaced! Sending as a response");
-            responseObserver.onNext(
-                    UpdateBlogResponse.newBuilder()
-                            .setBlog(documentToBlog(replacement))
-                            .build()
+        BlogReadMask readMask;
+        try {
+            readMask = BlogReadMask.of(request.getReadMask());
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(
+                    Status.INVALID_ARGUMENT
+                            .withDescription(e.getMessage())
+                            .asRuntimeException()
             );
-
-            responseObserver.onCompleted();
+            return;
         }
-    }
 
-    private Blog documentToBlog(Document document){
-        return Blog.newBuilder()
-                .setAuthorId(document.getString("author_id"))
-                .setTitle(document.getString("title"))
-                .setContent(document.getString("content"))
-                .setId(document.getObjectId("_id").toString())
-                .build();
+        ServerCallStreamObserver<ListBlogResponse> serverObserver =
+                (ServerCallStreamObserver<ListBlogResponse>) responseObserver;
+
+        // filters and page size are pushed down to the repository
+        AsyncBlogCursor cursor = repository.list(new BlogQuery(
+                request.getPageSize(), afterId, request.getAuthorId(), request.getTitlePrefix(), readMask));
+
+        BatchStreamer<Blog, ListBlogResponse> streamer = new BatchStreamer<>(
+                cursor::nextBatch,
+                cursor::close,
+                blog -> ListBlogResponse.newBuilder()
+                        .setBlog(blog)
+                        .setNextPageToken(encodePageToken(new ObjectId(blog.getId())))
+                        .build(),
+                "Failed to list the blogs",
+                serverObserver);
+
+        // we only fetch from the cursor when the client can take more messages
+        serverObserver.setOnReadyHandler(streamer);
+        // and we release the cursor as soon as the client goes away
+        serverObserver.setOnCancelHandler(streamer::close);
     }
 
     @Override
-    public void deleteBlog(DeleteBlogRequest request, StreamObserver<DeleteBlogResponse> responseObserver) {
-        System.out.println("Received Delete Blog Request");
+    public void watchBlogs(WatchBlogsRequest request, StreamObserver<BlogEvent> responseObserver) {
+        logger.fine("Received Watch Blogs Request");
 
-        String blogId = request.getBlogId();
-        DeleteResult result = null;
+        BlogEventStream events;
         try {
-            result = collection.deleteOne(eq("_id", new ObjectId(blogId)));
-        } catch (Exception e) {
-            System.out.println("Blog not found");
+            events = repository.watch(request.getResumeToken());
+        } catch (IllegalArgumentException e) {
             responseObserver.onError(
-                    Status.NOT_FOUND
-                            .withDescription("The blog with the corresponding id was not found")
-                            .augmentDescription(e.getLocalizedMessage())
+                    Status.INVALID_ARGUMENT
+                            .withDescription(e.getMessage())
                             .asRuntimeException()
             );
-        }
-
-        if (result.getDeletedCount() == 0) {
-            System.out.println("Blog not found");
+            return;
+        } catch (RuntimeException e) {
             responseObserver.onError(
-                    Status.NOT_FOUND
-                            .withDescription("The blog with the corresponding id was not found")
+                    Status.INTERNAL
+                            .withDescription("Failed to watch the blogs")
+                            .augmentDescription(e.getLocalizedMessage())
                             .asRuntimeException()
             );
-        } else {
-            System.out.println("Blog was deleted");
-            responseObserver.onNext(DeleteBlogResponse.newBuilder()
-                    .setBlogId(blogId)
-                    .build());
-
-            responseObserver.onCompleted();
+            return;
         }
 
+        ServerCallStreamObserver<BlogEvent> serverObserver = (ServerCallStreamObserver<BlogEvent>) responseObserver;
+
+        BatchStreamer<BlogEvent, BlogEvent> streamer = new BatchStreamer<>(
+                events::nextBatch,
+                events::close,
+                event -> event,
+                "Failed to watch the blogs",
+                serverObserver);
+
+        // a slow client holds the changes back in the store rather than in memory here,
+        // and it gets them all once it catches up
+        serverObserver.setOnReadyHandler(streamer);
+        // the streamer only closes a cursor once its batch arrived, a watch may wait for one until the next change
+        serverObserver.setOnCancelHandler(() -> {
+            streamer.close();
+            events.close();
+        });
     }
 
-    @Override
-    public void listBlog(ListBlogRequest request, StreamObserver<ListBlogResponse> responseObserver) {
-        System.out.println("Received List Blog Request");
+    /**
+     * Streams the items of a store cursor to the client while respecting gRPC flow control: the next batch
+     * is only fetched once the previous one has been sent and the client is ready for more.
+     * An empty batch ends the stream.
+     * The gRPC handlers and the store callbacks run on different threads, hence the lock.
+     */
+    private static class BatchStreamer<T, R> implements Runnable {
+
+        private final Supplier<CompletableFuture<List<T>>> nextBatch;
+        private final Runnable closeCursor;
+        private final Function<T, R> toResponse;
+        private final String failureDescription;
+        private final ServerCallStreamObserver<R> responseObserver;
+
+        // guarded by this
+        private final ArrayDeque<T> pending = new ArrayDeque<>();
+        private boolean fetching = false;
+        private boolean exhausted = false;
+        private boolean closed = false;
+
+        BatchStreamer(Supplier<CompletableFuture<List<T>>> nextBatch, Runnable closeCursor, Function<T, R> toResponse,
+                      String failureDescription, ServerCallStreamObserver<R> responseObserver) {
+            this.nextBatch = nextBatch;
+            this.closeCursor = closeCursor;
+            this.toResponse = toResponse;
+            this.failureDescription = failureDescription;
+            this.responseObserver = responseObserver;
+        }
 
-        collection.find().iterator().forEachRemaining(document -> responseObserver.onNext(
-                ListBlogResponse.newBuilder().setBlog(documentToBlog(document)).build()
-        ));
+        @Override
+        public synchronized void run() {
+            // isReady() turns false once the outbound buffer is full,
+            // onReady will call us again when the client has caught up
+            while (!closed && !fetching && responseObserver.isReady()) {
+                if (responseObserver.isCancelled()) {
+                    close();
+                    return;
+                }
+
+                T item = pending.poll();
+                if (item != null) {
+                    responseObserver.onNext(toResponse.apply(item));
+                } else if (exhausted) {
+                    close();
+                    responseObserver.onCompleted();
+                } else {
+                    CompletableFuture<List<T>> batch = fetch();
+                    if (batch.isDone()) {
+                        // a blocking repository on the calling thread, we keep looping rather than recursing
+                        onBatch(batch);
+                    } else {
+                        fetching = true;
+                        batch.whenComplete((items, error) -> onFetched(batch));
+                    }
+                }
+            }
+        }
 
-        responseObserver.onCompleted();
+        private CompletableFuture<List<T>> fetch() {
+            try {
+                return nextBatch.get();
+            } catch (RuntimeException e) {
+                // ends the call like a batch that failed later
+                CompletableFuture<List<T>> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+        }
+
+        private synchronized void onFetched(CompletableFuture<List<T>> batch) {
+            fetching = false;
+            if (closed) {
+                // cancelled while fetching
+                closeCursor.run();
+                return;
+            }
+            onBatch(batch);
+            run();
+        }
+
+        private void onBatch(CompletableFuture<List<T>> batch) {
+            List<T> items;
+            try {
+                items = batch.join();
+            } catch (Exception e) {
+                close();
+                responseObserver.onError(
+                        Status.INTERNAL
+                                .withDescription(failureDescription)
+                                .augmentDescription(causeOf(e).getLocalizedMessage())
+                                .asRuntimeException()
+                );
+                return;
+            }
+
+            if (items.isEmpty()) {
+                exhausted = true;
+            } else {
+                pending.addAll(items);
+            }
+        }
+
+        synchronized void close() {
+            if (!closed) {
+                closed = true;
+                pending.clear();
+                if (!fetching) {
+                    // otherwise the cursor is closed once the batch being fetched arrives
+                    closeCursor.run();
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,13 @@
+package com.github.simplesteph.grpc.blog.server;
+
+/**
+ * Thrown when a blog is written with an expected version, but the stored blog is at another version.
+ */
+public class BlogVersionConflictException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public BlogVersionConflictException(String blogId, long expectedVersion) {
+        super("The blog " + blogId + " is no longer at version " + expectedVersion);
+    }
+}
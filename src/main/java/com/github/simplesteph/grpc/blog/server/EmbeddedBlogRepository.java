@@ -0,0 +1,501 @@
+package com.github.simplesteph.grpc.blog.server;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.proto.blog.Blog;
+import com.proto.blog.BlogEvent;
+import com.proto.blog.CreateBlogResult;
+import io.grpc.Status;
+import org.bson.types.ObjectId;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Stores the blogs in a single file, without any external database.
+ * <p>
+ * The file is an append-only log of records, memory-mapped in segments so the blogs live off the
+ * Java heap. Creating or updating a blog appends its serialized bytes, deleting it appends a
+ * tombstone. An in-memory index maps every live id to its latest record, plus a per-author index
+ * that plays the role of the author_id index of MongoDB. Both are rebuilt by replaying the log at startup.
+ * <p>
+ * Writes are serialized, reads never lock: a record is complete before its offset is published in the index.
+ * Old versions of the blogs are never reclaimed, the log only grows.
+ * <p>
+ * The log is also the history of the changes: a watch reads the records from an offset and then waits for
+ * new ones, the offset right after an event is its resume token. Only the offsets where a record ends are
+ * valid tokens, the index keeps them so a forged one is rejected.
+ */
+public class EmbeddedBlogRepository implements BlogRepository {
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+
+    // record: int length of what follows | byte type | 12 bytes id | serialized Blog (PUT only)
+    // the length is written last, a zero length marks the end of the records of a segment
+    private static final int LENGTH_SIZE = 4;
+    private static final int HEADER_SIZE = LENGTH_SIZE + 1 + 12;
+
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    // maximum number of events read from the log at once by a watch
+    private static final int WATCH_BATCH_SIZE = 100;
+
+    private final FileChannel channel;
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    // written while holding the lock, watches read it without
+    private volatile long writePosition = 0;
+    // one per watch waiting for the next append, completed after it, guarded by this
+    private final Set<CompletableFuture<Void>> appendWaiters = new HashSet<>();
+    // completes the waiting watches outside of the lock of the writers
+    private final ExecutorService watchNotifier = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "blog-watch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // ids are ObjectIds, so their order is the creation order, like _id in MongoDB
+    private final ConcurrentSkipListMap<ObjectId, IndexEntry> index = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, NavigableSet<ObjectId>> authorIndex = new ConcurrentHashMap<>();
+    // the offsets right after each record, the resume tokens a watch accepts besides 0
+    private final ConcurrentSkipListSet<Long> recordEnds = new ConcurrentSkipListSet<>();
+
+    public EmbeddedBlogRepository(Path path) throws IOException {
+        this.channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        replay();
+    }
+
+    @Override
+    public synchronized Blog create(Blog blog) {
+        return store(new ObjectId(), blog, 1L);
+    }
+
+    @Override
+    public synchronized List<CreateBlogResult> createAll(List<Blog> blogs) {
+        List<CreateBlogResult> results = new ArrayList<>(blogs.size());
+        for (Blog blog : blogs) {
+            if (blog.getId().isEmpty()) {
+                results.add(CreateBlogResult.newBuilder().setBlog(create(blog)).build());
+            } else if (ObjectId.isValid(blog.getId())) {
+                // upsert
+                ObjectId id = new ObjectId(blog.getId());
+                IndexEntry entry = index.get(id);
+                Blog stored = store(id, blog, entry == null ? 1L : entry.version + 1);
+                results.add(CreateBlogResult.newBuilder().setBlog(stored).build());
+            } else {
+                results.add(CreateBlogResult.newBuilder()
+                        .setErrorCode(Status.Code.INVALID_ARGUMENT.value())
+                        .setErrorMessage("The blog id is not valid: " + blog.getId())
+                        .build());
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public Blog read(String blogId, BlogReadMask readMask) {
+        if (!ObjectId.isValid(blogId)) {
+            return null;
+        }
+
+        IndexEntry entry = index.get(new ObjectId(blogId));
+        return entry == null ? null : readMask.apply(readBlogAt(entry.offset));
+    }
+
+    @Override
+    public synchronized Blog update(Blog blog) {
+        if (!ObjectId.isValid(blog.getId())) {
+            return null;
+        }
+
+        ObjectId id = new ObjectId(blog.getId());
+        IndexEntry entry = index.get(id);
+        if (entry == null) {
+            return null;
+        }
+        checkVersion(blog.getId(), entry, blog.getVersion());
+
+        return store(id, blog, entry.version + 1);
+    }
+
+    @Override
+    public synchronized boolean delete(String blogId, long expectedVersion) {
+        if (!ObjectId.isValid(blogId)) {
+            return false;
+        }
+
+        ObjectId id = new ObjectId(blogId);
+        IndexEntry entry = index.get(id);
+        if (entry == null) {
+            return false;
+        }
+        checkVersion(blogId, entry, expectedVersion);
+
+        append(DELETE, id, new byte[0]);
+        indexRemove(id);
+
+        return true;
+    }
+
+    @Override
+    public BlogCursor list(BlogQuery query) {
+        NavigableSet<ObjectId> ids;
+        if (!query.getAuthorId().isEmpty()) {
+            ids = authorIndex.getOrDefault(query.getAuthorId(), Collections.emptyNavigableSet());
+        } else {
+            ids = index.navigableKeySet();
+        }
+        if (query.getAfterId() != null) {
+            ids = ids.headSet(query.getAfterId(), false);
+        }
+
+        // newest first; the iterators of the indexes see the writes made while we list
+        Iterator<ObjectId> iterator = ids.descendingIterator();
+        String titlePrefix = query.getTitlePrefix();
+        int pageSize = query.getPageSize();
+
+        return new BlogCursor() {
+            private Blog next;
+            private int returned = 0;
+
+            @Override
+            public boolean hasNext() {
+                if (pageSize > 0 && returned >= pageSize) {
+                    return false;
+                }
+                while (next == null && iterator.hasNext()) {
+                    IndexEntry entry = index.get(iterator.next());
+                    if (entry == null) {
+                        // deleted since we started listing
+                        continue;
+                    }
+                    Blog blog = readBlogAt(entry.offset);
+                    if (blog.getTitle().startsWith(titlePrefix)) {
+                        next = query.getReadMask().apply(blog);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Blog next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Blog blog = next;
+                next = null;
+                returned++;
+                return blog;
+            }
+
+            @Override
+            public void close() {
+                // nothing to release
+            }
+        };
+    }
+
+    @Override
+    public BlogEventStream watch(String resumeToken) {
+        long from = resumeToken.isEmpty() ? writePosition : decodeResumeToken(resumeToken);
+
+        return new BlogEventStream() {
+            // only used by the caller of nextBatch, one batch at a time
+            private long position = from;
+            private volatile boolean closed = false;
+            // the wait for the next append, completed early by close
+            private volatile CompletableFuture<Void> waiting;
+
+            @Override
+            public CompletableFuture<List<BlogEvent>> nextBatch() {
+                if (closed) {
+                    return CompletableFuture.completedFuture(Collections.emptyList());
+                }
+
+                List<BlogEvent> events = new ArrayList<>();
+                long end = writePosition;
+                while (position < end && events.size() < WATCH_BATCH_SIZE) {
+                    int segmentPosition = (int) (position % SEGMENT_SIZE);
+                    int length = segmentPosition + HEADER_SIZE <= SEGMENT_SIZE
+                            ? segments[(int) (position / SEGMENT_SIZE)].getInt(segmentPosition)
+                            : 0;
+                    if (length == 0) {
+                        // the end of the segment is unused, the next record is at the start of the next one
+                        position += SEGMENT_SIZE - segmentPosition;
+                        continue;
+                    }
+                    if (length < HEADER_SIZE - LENGTH_SIZE || length > SEGMENT_SIZE - segmentPosition - LENGTH_SIZE) {
+                        throw new IllegalStateException("Corrupted record at offset " + position);
+                    }
+                    long offset = position;
+                    position += LENGTH_SIZE + length;
+                    events.add(readEventAt(offset, position));
+                }
+
+                if (!events.isEmpty()) {
+                    return CompletableFuture.completedFuture(events);
+                }
+                CompletableFuture<Void> appended = appendedAfter(position);
+                waiting = appended;
+                if (closed) {
+                    // closed while we were reading, close may have missed this wait
+                    stopWaiting(appended);
+                }
+                // once closed, this ends with an empty batch
+                return appended.thenCompose(ignored -> nextBatch());
+            }
+
+            @Override
+            public void close() {
+                closed = true;
+                CompletableFuture<Void> appended = waiting;
+                if (appended != null) {
+                    // so the watch doesn't wait for a write that may never come
+                    stopWaiting(appended);
+                }
+            }
+        };
+    }
+
+    // completes once the log goes past this position
+    private synchronized CompletableFuture<Void> appendedAfter(long position) {
+        if (writePosition > position) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> appended = new CompletableFuture<>();
+        appendWaiters.add(appended);
+        return appended;
+    }
+
+    private void stopWaiting(CompletableFuture<Void> appended) {
+        synchronized (this) {
+            appendWaiters.remove(appended);
+        }
+        appended.complete(null);
+    }
+
+    @Override
+    public synchronized void close() {
+        watchNotifier.shutdown();
+        try {
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends a new version of a blog to the log and indexes it, must be called while holding the lock.
+     */
+    private Blog store(ObjectId id, Blog blog, long version) {
+        Blog stored = blog.toBuilder()
+                .setId(id.toHexString())
+                .setVersion(version)
+                .build();
+
+        long offset = append(PUT, id, stored.toByteArray());
+        indexPut(id, offset, stored);
+
+        return stored;
+    }
+
+    // the resume token is the url-safe base64 encoding of the offset right after the event
+    private static String encodeResumeToken(long nextOffset) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(ByteBuffer.allocate(8).putLong(nextOffset).array());
+    }
+
+    private long decodeResumeToken(String resumeToken) {
+        long offset = -1;
+        try {
+            byte[] bytes = Base64.getUrlDecoder().decode(resumeToken);
+            if (bytes.length == 8) {
+                offset = ByteBuffer.wrap(bytes).getLong();
+            }
+        } catch (IllegalArgumentException e) {
+            // not base64
+        }
+        if (offset != 0 && !recordEnds.contains(offset)) {
+            throw new IllegalArgumentException("The resume token is not valid: " + resumeToken);
+        }
+        return offset;
+    }
+
+    private BlogEvent readEventAt(long offset, long nextOffset) {
+        ByteBuffer segment = segments[(int) (offset / SEGMENT_SIZE)].duplicate();
+        int position = (int) (offset % SEGMENT_SIZE);
+        segment.position(position + LENGTH_SIZE + 1);
+        ObjectId id = new ObjectId(segment);
+
+        BlogEvent.Builder event = BlogEvent.newBuilder()
+                .setBlogId(id.toHexString())
+                .setResumeToken(encodeResumeToken(nextOffset));
+        if (segment.get(position + LENGTH_SIZE) == PUT) {
+            Blog blog = readBlogAt(offset);
+            // a blog is created at version 1, upserts included
+            event.setType(blog.getVersion() == 1 ? BlogEvent.Type.CREATED : BlogEvent.Type.UPDATED)
+                    .setBlog(blog);
+        } else {
+            event.setType(BlogEvent.Type.DELETED);
+        }
+        return event.build();
+    }
+
+    private static void checkVersion(String blogId, IndexEntry entry, long expectedVersion) {
+        if (expectedVersion > 0 && entry.version != expectedVersion) {
+            throw new BlogVersionConflictException(blogId, expectedVersion);
+        }
+    }
+
+    private void indexPut(ObjectId id, long offset, Blog blog) {
+        String authorId = blog.getAuthorId();
+        IndexEntry previous = index.put(id, new IndexEntry(offset, authorId, blog.getVersion()));
+        if (previous != null && !previous.authorId.equals(authorId)) {
+            authorIndex.get(previous.authorId).remove(id);
+        }
+        authorIndex.computeIfAbsent(authorId, key -> new ConcurrentSkipListSet<>()).add(id);
+    }
+
+    private void indexRemove(ObjectId id) {
+        IndexEntry previous = index.remove(id);
+        if (previous != null) {
+            authorIndex.get(previous.authorId).remove(id);
+        }
+    }
+
+    private Blog readBlogAt(long offset) {
+        ByteBuffer record = segments[(int) (offset / SEGMENT_SIZE)].duplicate();
+        int position = (int) (offset % SEGMENT_SIZE);
+        int length = record.getInt(position);
+        record.limit(position + LENGTH_SIZE + length).position(position + HEADER_SIZE);
+        try {
+            return Blog.parseFrom(record);
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalStateException("Corrupted blog record at offset " + offset, e);
+        }
+    }
+
+    /**
+     * Appends a record to the log, must be called while holding the lock.
+     *
+     * @return the offset of the record
+     */
+    private long append(byte type, ObjectId id, byte[] payload) {
+        int length = HEADER_SIZE - LENGTH_SIZE + payload.length;
+        int recordSize = LENGTH_SIZE + length;
+        if (recordSize > SEGMENT_SIZE) {
+            throw new IllegalArgumentException("The blog is too large to be stored: " + payload.length + " bytes");
+        }
+
+        int position = (int) (writePosition % SEGMENT_SIZE);
+        if (position + recordSize > SEGMENT_SIZE) {
+            // records don't span segments, the end of this one stays zeroed
+            writePosition += SEGMENT_SIZE - position;
+            position = 0;
+        }
+        MappedByteBuffer segment = segment((int) (writePosition / SEGMENT_SIZE));
+
+        ByteBuffer record = segment.duplicate();
+        record.position(position + LENGTH_SIZE);
+        record.put(type);
+        record.put(id.toByteArray());
+        record.put(payload);
+        // the length goes last, so a record cut short by a crash is not replayed
+        segment.putInt(position, length);
+
+        long offset = writePosition;
+        // before the position is published, so every event a watch sends has a valid token
+        recordEnds.add(offset + recordSize);
+        writePosition += recordSize;
+
+        if (!appendWaiters.isEmpty()) {
+            List<CompletableFuture<Void>> waiting = new ArrayList<>(appendWaiters);
+            appendWaiters.clear();
+            watchNotifier.execute(() -> waiting.forEach(appended -> appended.complete(null)));
+        }
+        return offset;
+    }
+
+    private MappedByteBuffer segment(int segmentIndex) {
+        if (segmentIndex == segments.length) {
+            try {
+                // mapping past the end of the file grows it
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE,
+                        (long) segmentIndex * SEGMENT_SIZE, SEGMENT_SIZE);
+                MappedByteBuffer[] grown = Arrays.copyOf(segments, segmentIndex + 1);
+                grown[segmentIndex] = segment;
+                segments = grown;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return segments[segmentIndex];
+    }
+
+    private synchronized void replay() throws IOException {
+        int segmentCount = (int) ((channel.size() + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        for (int segmentIndex = 0; segmentIndex < segmentCount; segmentIndex++) {
+            MappedByteBuffer segment = segment(segmentIndex);
+            int position = 0;
+            while (position + HEADER_SIZE <= SEGMENT_SIZE) {
+                int length = segment.getInt(position);
+                if (length == 0) {
+                    break;
+                }
+
+                long offset = (long) segmentIndex * SEGMENT_SIZE + position;
+                byte type = segment.get(position + LENGTH_SIZE);
+                ByteBuffer idBytes = segment.duplicate();
+                idBytes.position(position + LENGTH_SIZE + 1);
+                ObjectId id = new ObjectId(idBytes);
+
+                if (type == PUT) {
+                    indexPut(id, offset, readBlogAt(offset));
+                } else {
+                    indexRemove(id);
+                }
+
+                position += LENGTH_SIZE + length;
+                writePosition = offset + LENGTH_SIZE + length;
+                recordEnds.add(writePosition);
+            }
+        }
+    }
+
+    private static class IndexEntry {
+        final long offset;
+        final String authorId;
+        final long version;
+
+        IndexEntry(long offset, String authorId, long version) {
+            this.offset = offset;
+            this.authorId = authorId;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.github.simplesteph.grpc.blog.server;
+
+import com.proto.blog.Blog;
+import com.proto.blog.CreateBlogResult;
+import io.grpc.Context;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Runs the calls of a blocking {@link BlogRepository} on an executor.
+ * <p>
+ * With {@link #DIRECT} the calls run on the calling gRPC thread and the futures are already complete
+ * when returned, which is how the service has always behaved. An executor of virtual threads
+ * keeps the blocking driver without pinning platform threads.
+ */
+public class ExecutorBlogRepository implements AsyncBlogRepository {
+
+    public static final Executor DIRECT = Runnable::run;
+
+    private static final int LIST_BATCH_SIZE = 100;
+
+    private final BlogRepository repository;
+    private final Executor executor;
+
+    public ExecutorBlogRepository(BlogRepository repository, Executor executor) {
+        this.repository = repository;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<Blog> create(Blog blog) {
+        return supply(() -> repository.create(blog));
+    }
+
+    @Override
+    public CompletableFuture<List<CreateBlogResult>> createAll(List<Blog> blogs) {
+        return supply(() -> repository.createAll(blogs));
+    }
+
+    @Override
+    public CompletableFuture<Blog> read(String blogId, BlogReadMask readMask) {
+        return supply(() -> repository.read(blogId, readMask));
+    }
+
+    @Override
+    public CompletableFuture<Blog> update(Blog blog) {
+        return supply(() -> repository.update(blog));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> delete(String blogId, long expectedVersion) {
+        return supply(() -> repository.delete(blogId, expectedVersion));
+    }
+
+    @Override
+    public AsyncBlogCursor list(BlogQuery query) {
+        CompletableFuture<BlogCursor> cursor = supply(() -> repository.list(query));
+
+        return new AsyncBlogCursor() {
+            @Override
+            public CompletableFuture<List<Blog>> nextBatch() {
+                return cursor.thenCompose(blogs -> supply(() -> {
+                    List<Blog> batch = new ArrayList<>(LIST_BATCH_SIZE);
+                    while (batch.size() < LIST_BATCH_SIZE && blogs.hasNext()) {
+                        batch.add(blogs.next());
+                    }
+                    return batch;
+                }));
+            }
+
+            @Override
+            public void close() {
+                cursor.thenAccept(BlogCursor::close);
+            }
+        };
+    }
+
+    @Override
+    public BlogEventStream watch(String resumeToken) {
+        // already non-blocking
+        return repository.watch(resumeToken);
+    }
+
+    @Override
+    public void close() {
+        repository.close();
+    }
+
+    // exceptions of the repository fail the future instead of being thrown to the caller,
+    // the call runs in the context of the caller so it sees the deadline of the gRPC call
+    private <T> CompletableFuture<T> supply(Supplier<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(Context.current().wrap(() -> {
+                try {
+                    future.complete(call.get());
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            }));
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+        }
+        return future;
+    }
+}
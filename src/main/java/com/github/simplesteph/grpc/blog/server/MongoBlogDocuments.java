@@ -0,0 +1,250 @@
+package com.github.simplesteph.grpc.blog.server;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.proto.blog.Blog;
+import com.proto.blog.BlogEvent;
+import com.proto.blog.CreateBlogResult;
+import io.grpc.Status;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.regex;
+import static com.mongodb.client.model.Indexes.ascending;
+import static com.mongodb.client.model.Indexes.compoundIndex;
+import static com.mongodb.client.model.Indexes.descending;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.inc;
+import static com.mongodb.client.model.Updates.set;
+
+/**
+ * How blogs map to MongoDB documents and queries, shared by the synchronous and asynchronous Mongo repositories.
+ */
+final class MongoBlogDocuments {
+
+    // number of documents fetched from MongoDB per cursor round trip when listing blogs
+    static final int LIST_BATCH_SIZE = 100;
+
+    private MongoBlogDocuments() {
+    }
+
+    // serves the author_id filter and the newest first sort of list
+    static Bson listIndex() {
+        return compoundIndex(ascending("author_id"), descending("_id"));
+    }
+
+    // a new blog at version 1, MongoDB generates the _id on insert
+    static Document newDocument(Blog blog) {
+        return new Document("author_id", blog.getAuthorId())
+                .append("title", blog.getTitle())
+                .append("content", blog.getContent())
+                .append("version", 1L);
+    }
+
+    // fields left out by a projection are not in the document, so they keep their default value
+    static Blog documentToBlog(Document document){
+        Blog.Builder builder = Blog.newBuilder();
+        if (document.containsKey("author_id")) {
+            builder.setAuthorId(document.getString("author_id"));
+        }
+        if (document.containsKey("title")) {
+            builder.setTitle(document.getString("title"));
+        }
+        if (document.containsKey("content")) {
+            builder.setContent(document.getString("content"));
+        }
+        if (document.containsKey("_id")) {
+            builder.setId(document.getObjectId("_id").toString());
+        }
+        if (document.containsKey("version")) {
+            // blogs stored before versioning was introduced have no version
+            builder.setVersion(((Number) document.get("version")).longValue());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Turns a read mask into a MongoDB projection, so the fields left out are not read from the database.
+     * Returns null (all fields) for {@link BlogReadMask#ALL}.
+     */
+    static Bson toProjection(BlogReadMask readMask) {
+        if (readMask.isAll()) {
+            return null;
+        }
+        // _id is named even though MongoDB includes it anyway: a mask of only the id would otherwise
+        // be the empty projection, which returns every field
+        List<String> fields = new ArrayList<>(readMask.fields().size() + 1);
+        fields.add("_id");
+        fields.addAll(readMask.fields());
+        return include(fields);
+    }
+
+    // filters are pushed down to MongoDB, the author_id index serves both the filter and the sort
+    static Bson listFilter(BlogQuery query) {
+        List<Bson> filters = new ArrayList<>();
+        if (!query.getAuthorId().isEmpty()) {
+            filters.add(eq("author_id", query.getAuthorId()));
+        }
+        if (!query.getTitlePrefix().isEmpty()) {
+            filters.add(regex("title", "^" + Pattern.quote(query.getTitlePrefix())));
+        }
+        if (query.getAfterId() != null) {
+            // newest first, so the next page holds the smaller ids
+            filters.add(lt("_id", query.getAfterId()));
+        }
+        return filters.isEmpty() ? new Document() : and(filters);
+    }
+
+    // the cursor fetches at most LIST_BATCH_SIZE documents per round trip to MongoDB
+    static int listBatchSize(BlogQuery query) {
+        return query.getPageSize() > 0 ? Math.min(query.getPageSize(), LIST_BATCH_SIZE) : LIST_BATCH_SIZE;
+    }
+
+    // matches the blog, and its version if one is expected
+    static Bson versionFilter(String blogId, long expectedVersion) {
+        Bson idFilter = eq("_id", new ObjectId(blogId));
+        return expectedVersion > 0 ? and(idFilter, eq("version", expectedVersion)) : idFilter;
+    }
+
+    // sets every field of the blog, an update rather than a replacement so the version is incremented by MongoDB
+    static Bson replacementOf(Blog blog) {
+        return combine(
+                set("author_id", blog.getAuthorId()),
+                set("title", blog.getTitle()),
+                set("content", blog.getContent()),
+                inc("version", 1L));
+    }
+
+    // the resume tokens of MongoDB are documents, we hand them out as url-safe base64 of their JSON
+    static String encodeResumeToken(BsonDocument resumeToken) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(resumeToken.toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the resume token was not made by {@link #encodeResumeToken(BsonDocument)}
+     */
+    static BsonDocument decodeResumeToken(String resumeToken) {
+        try {
+            return BsonDocument.parse(new String(Base64.getUrlDecoder().decode(resumeToken), StandardCharsets.UTF_8));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("The resume token is not valid: " + resumeToken, e);
+        }
+    }
+
+    /**
+     * Turns a change of the blog collection into an event, or returns null if the change is not about a blog,
+     * like the collection being dropped.
+     */
+    static BlogEvent toEvent(ChangeStreamDocument<Document> change) {
+        BlogEvent.Builder event = BlogEvent.newBuilder()
+                .setResumeToken(encodeResumeToken(change.getResumeToken()));
+        switch (change.getOperationType()) {
+            case INSERT:
+                event.setType(BlogEvent.Type.CREATED);
+                break;
+            case UPDATE:
+            case REPLACE:
+                event.setType(BlogEvent.Type.UPDATED);
+                break;
+            case DELETE:
+                event.setType(BlogEvent.Type.DELETED);
+                break;
+            default:
+                return null;
+        }
+
+        event.setBlogId(change.getDocumentKey().getObjectId("_id").getValue().toHexString());
+        // the full document of an update is looked up after the change, it is gone if the blog was deleted since
+        if (change.getFullDocument() != null && event.getType() != BlogEvent.Type.DELETED) {
+            event.setBlog(documentToBlog(change.getFullDocument()));
+        }
+        return event.build();
+    }
+
+    /**
+     * The writes of a createAll batch, and the results they lead to.
+     */
+    static class BulkCreate {
+
+        final List<WriteModel<Document>> writes;
+        private final List<CreateBlogResult.Builder> results;
+        // the results of the blogs sent to MongoDB, in the order of the writes of the bulk
+        private final List<CreateBlogResult.Builder> written;
+
+        BulkCreate(List<Blog> blogs) {
+            writes = new ArrayList<>(blogs.size());
+            results = new ArrayList<>(blogs.size());
+            written = new ArrayList<>(blogs.size());
+
+            for (Blog blog : blogs) {
+                CreateBlogResult.Builder result = CreateBlogResult.newBuilder();
+                results.add(result);
+
+                if (blog.getId().isEmpty()) {
+                    ObjectId id = new ObjectId();
+                    writes.add(new InsertOneModel<>(newDocument(blog).append("_id", id)));
+                    result.setBlog(blog.toBuilder().setId(id.toHexString()).setVersion(1L));
+                } else if (ObjectId.isValid(blog.getId())) {
+                    ObjectId id = new ObjectId(blog.getId());
+                    // the stored version is only known by MongoDB, so we don't return it
+                    writes.add(new UpdateOneModel<>(eq("_id", id), replacementOf(blog), new UpdateOptions().upsert(true)));
+                    result.setBlog(blog.toBuilder().clearVersion());
+                } else {
+                    result.setErrorCode(Status.Code.INVALID_ARGUMENT.value())
+                            .setErrorMessage("The blog id is not valid: " + blog.getId());
+                    continue;
+                }
+                written.add(result);
+            }
+        }
+
+        // some writes of an unordered bulk failed, the others went through
+        void failWrites(MongoBulkWriteException e) {
+            for (BulkWriteError error : e.getWriteErrors()) {
+                Status.Code code = error.getCategory() == ErrorCategory.DUPLICATE_KEY
+                        ? Status.Code.ALREADY_EXISTS
+                        : Status.Code.INTERNAL;
+                written.get(error.getIndex())
+                        .clearBlog()
+                        .setErrorCode(code.value())
+                        .setErrorMessage(error.getMessage());
+            }
+        }
+
+        // we don't know which writes went through
+        void failAll(Throwable t) {
+            for (CreateBlogResult.Builder result : written) {
+                result.clearBlog()
+                        .setErrorCode(Status.Code.UNAVAILABLE.value())
+                        .setErrorMessage(String.valueOf(t.getMessage()));
+            }
+        }
+
+        List<CreateBlogResult> results() {
+            List<CreateBlogResult> built = new ArrayList<>(results.size());
+            for (CreateBlogResult.Builder result : results) {
+                built.add(result.build());
+            }
+            return built;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.github.simplesteph.grpc.blog.server;
+
+import com.github.simplesteph.grpc.common.Deadlines;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import com.proto.blog.Blog;
+import com.proto.blog.BlogEvent;
+import com.proto.blog.CreateBlogResult;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.simplesteph.grpc.blog.server.MongoBlogDocuments.decodeResumeToken;
+import static com.github.simplesteph.grpc.blog.server.MongoBlogDocuments.documentToBlog;
+import static com.github.simplesteph.grpc.blog.server.MongoBlogDocuments.listBatchSize;
+import static com.github.simplesteph.grpc.blog.server.MongoBlogDocuments.listFilter;
+import static com.github.simplesteph.grpc.blog.server.MongoBlogDocuments.listIndex;
+import static com.github.simplesteph.grpc.blog.server.MongoBlogDocuments.newDocument;
+import static com.github.simplesteph.grpc.blog.server.MongoBlogDocuments.replacementOf;
+import static com.github.simplesteph.grpc.blog.server.MongoBlogDocuments.toEvent;
+import static com.github.simplesteph.grpc.blog.server.MongoBlogDocuments.toProjection;
+import static com.github.simplesteph.grpc.blog.server.MongoBlogDocuments.versionFilter;
+import static com.mongodb.client.model.Filters.eq;
+
+/**
+ * Stores the blogs in the "blog" collection of the "mydb" MongoDB database, with the synchronous driver.
+ */
+public class MongoBlogRepository implements BlogRepository {
+
+    private final MongoClient mongoClient;
+    private final MongoCollection<Document> collection;
+
+    // the synchronous driver blocks while waiting for changes, so the watches wait on their own threads
+    private final ExecutorService watchExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "blog-watch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public MongoBlogRepository(String connectionString) {
+        this.mongoClient = MongoClients.create(connectionString);
+        this.collection = mongoClient.getDatabase("mydb").getCollection("blog");
+    }
+
+    /**
+     * Creates the indexes used by list, MongoDB does nothing if they already exist.
+     */
+    public void createIndexes() {
+        collection.createIndex(listIndex());
+    }
+
+    @Override
+    public Blog create(Blog blog) {
+        Document doc = newDocument(blog);
+
+        // we insert (create) the document in mongoDB
+        collection.insertOne(doc);
+
+        // we retrieve the MongoDB generated ID
+        return blog.toBuilder()
+                .setId(doc.getObjectId("_id").toString())
+                .setVersion(1L)
+                .build();
+    }
+
+    @Override
+    public List<CreateBlogResult> createAll(List<Blog> blogs) {
+        MongoBlogDocuments.BulkCreate bulk = new MongoBlogDocuments.BulkCreate(blogs);
+
+        if (!bulk.writes.isEmpty()) {
+            try {
+                // unordered, so a failed write doesn't stop the ones after it
+                collection.bulkWrite(bulk.writes, new BulkWriteOptions().ordered(false));
+            } catch (MongoBulkWriteException e) {
+                bulk.failWrites(e);
+            } catch (MongoException e) {
+                bulk.failAll(e);
+            }
+        }
+
+        return bulk.results();
+    }
+
+    @Override
+    public Blog read(String blogId, BlogReadMask readMask) {
+        if (!ObjectId.isValid(blogId)) {
+            return null;
+        }
+
+        Document result = collection.find(eq("_id", new ObjectId(blogId)))
+                .projection(toProjection(readMask))
+                .maxTime(Deadlines.remainingMillis(), TimeUnit.MILLISECONDS)
+                .first();
+
+        return result == null ? null : documentToBlog(result);
+    }
+
+    @Override
+    public Blog update(Blog blog) {
+        String blogId = blog.getId();
+        if (!ObjectId.isValid(blogId)) {
+            return null;
+        }
+
+        // one round trip that replaces the fields, bumps the version and returns the stored document
+        Document result = collection.findOneAndUpdate(
+                versionFilter(blogId, blog.getVersion()),
+                replacementOf(blog),
+                new FindOneAndUpdateOptions()
+                        .returnDocument(ReturnDocument.AFTER)
+                        .maxTime(Deadlines.remainingMillis(), TimeUnit.MILLISECONDS));
+
+        if (result == null) {
+            checkVersionConflict(blogId, blog.getVersion());
+            return null;
+        }
+
+        return documentToBlog(result);
+    }
+
+    @Override
+    public boolean delete(String blogId, long expectedVersion) {
+        if (!ObjectId.isValid(blogId)) {
+            return false;
+        }
+
+        if (collection.deleteOne(versionFilter(blogId, expectedVersion)).getDeletedCount() == 0) {
+            checkVersionConflict(blogId, expectedVersion);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Called when a write matched nothing: tells a missing blog from a blog at another version.
+     * This extra round trip only happens on the failure path.
+     */
+    private void checkVersionConflict(String blogId, long expectedVersion) {
+        if (expectedVersion > 0 && collection.countDocuments(eq("_id", new ObjectId(blogId)),
+                new CountOptions().maxTime(Deadlines.remainingMillis(), TimeUnit.MILLISECONDS)) > 0) {
+            throw new BlogVersionConflictException(blogId, expectedVersion);
+        }
+    }
+
+    @Override
+    public BlogCursor list(BlogQuery query) {
+        MongoCursor<Document> cursor = collection.find(listFilter(query))
+                .projection(toProjection(query.getReadMask()))
+                .sort(Sorts.descending("_id"))
+                .limit(query.getPageSize())
+                .batchSize(listBatchSize(query))
+                .maxTime(Deadlines.remainingMillis(), TimeUnit.MILLISECONDS)
+                .iterator();
+
+        return new BlogCursor() {
+            @Override
+            public boolean hasNext() {
+                return cursor.hasNext();
+            }
+
+            @Override
+            public Blog next() {
+                return documentToBlog(cursor.next());
+            }
+
+            @Override
+            public void close() {
+                cursor.close();
+            }
+        };
+    }
+
+    /**
+     * Watches the blog collection with a change stream, this needs MongoDB to run as a replica set.
+     */
+    @Override
+    public BlogEventStream watch(String resumeToken) {
+        ChangeStreamIterable<Document> changes = collection.watch()
+                .fullDocument(FullDocument.UPDATE_LOOKUP)
+                // so a closed stream is noticed at least once per second
+                .maxAwaitTime(1, TimeUnit.SECONDS);
+        if (!resumeToken.isEmpty()) {
+            changes.resumeAfter(decodeResumeToken(resumeToken));
+        }
+        MongoCursor<ChangeStreamDocument<Document>> cursor = changes.iterator();
+
+        return new BlogEventStream() {
+            // the cursor is only used by one thread at a time, the one waiting for the last batch
+            private CompletableFuture<List<BlogEvent>> lastBatch = CompletableFuture.completedFuture(null);
+            private volatile boolean closed = false;
+
+            @Override
+            public synchronized CompletableFuture<List<BlogEvent>> nextBatch() {
+                lastBatch = CompletableFuture.supplyAsync(this::waitForEvent, watchExecutor);
+                return lastBatch;
+            }
+
+            private List<BlogEvent> waitForEvent() {
+                while (!closed) {
+                    // waits for a change at most maxAwaitTime
+                    ChangeStreamDocument<Document> change = cursor.tryNext();
+                    if (change == null) {
+                        continue;
+                    }
+                    if (change.getOperationType() == OperationType.INVALIDATE) {
+                        // the collection was dropped or renamed
+                        break;
+                    }
+                    BlogEvent event = toEvent(change);
+                    if (event != null) {
+                        return Collections.singletonList(event);
+                    }
+                }
+                return Collections.emptyList();
+            }
+
+            @Override
+            public synchronized void close() {
+                closed = true;
+                lastBatch.whenComplete((events, t) -> cursor.close());
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        watchExecutor.shutdownNow();
+        mongoClient.close();
+    }
+}
@@ -8,6 +8,8 @@ import io.grpc.stub.StreamObserver;
 
 import java.util.Arrays;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 public class CalculatorClient {
@@ -29,6 +31,8 @@ public class CalculatorClient {
 
          doServerStreamingCall(channel);
 
+         doBatchCall(channel);
+
          doClientStreamingCall(channel);
 
          doBidiStreamingCall(channel);
@@ -71,6 +75,26 @@ public class CalculatorClient {
 
     }
 
+    private void doBatchCall(ManagedChannel channel) {
+        CalculatorServiceGrpc.CalculatorServiceBlockingStub stub = CalculatorServiceGrpc.newBlockingStub(channel);
+
+        // one call for all the numbers, instead of one streaming call per number
+        BatchPrimeDecompositionResponse response = stub.batchPrimeDecomposition(BatchPrimeDecompositionRequest.newBuilder()
+                .addAllNumbers(Arrays.asList(120L, 567890L, 9223372036854775807L, 4611686014132420609L))
+                .build());
+
+        for (PrimeFactorization factorization : response.getFactorizationsList()) {
+            StringBuilder factors = new StringBuilder();
+            for (int i = 0; i < factorization.getPrimesCount(); i++) {
+                factors.append(i == 0 ? "" : " * ")
+                        .append(factorization.getPrimes(i))
+                        .append("^")
+                        .append(factorization.getExponents(i));
+            }
+            System.out.println(factorization.getNumber() + " = " + factors);
+        }
+    }
+
     private void doClientStreamingCall(ManagedChannel channel){
         CalculatorServiceGrpc.CalculatorServiceStub asyncClient = CalculatorServiceGrpc.newStub(channel);
 
@@ -81,6 +105,8 @@ public class CalculatorClient {
             public void onNext(ComputeAverageResponse value) {
                 System.out.println("Received a response from the server");
                 System.out.println(value.getAverage());
+                System.out.println("count: " + value.getCount() + ", min: " + value.getMin() + ", max: " + value.getMax()
+                        + ", variance: " + value.getVariance() + ", p50: " + value.getP50() + ", p99: " + value.getP99());
             }
 
             @Override
@@ -95,16 +121,19 @@ public class CalculatorClient {
             }
         });
 
-        // we send 10000 messages to our server (client streaming)
+        // we send 10000 numbers to our server (client streaming), packed in chunks of up to 1000
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        NumberBatcher<ComputeAverageRequest> batcher = new NumberBatcher<>(requestObserver,
+                chunk -> ComputeAverageRequest.newBuilder().setChunk(chunk).build(),
+                1000, 10, TimeUnit.MILLISECONDS, scheduler);
         for (int i = 0; i < 10000; i++){
-            requestObserver.onNext(ComputeAverageRequest.newBuilder()
-                    .setNumber(i)
-                    .build());
+            batcher.add(i);
         }
 
-        // we expect the average to be 10 / 4  = 2.5
+        // we expect the average to be 9999 / 2 = 4999.5
 
-        requestObserver.onCompleted();
+        batcher.onCompleted();
+        scheduler.shutdown();
 
         try {
             latch.await(3, TimeUnit.SECONDS);
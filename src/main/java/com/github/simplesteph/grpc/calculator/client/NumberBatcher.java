@@ -0,0 +1,82 @@
+package com.github.simplesteph.grpc.calculator.client;
+
+import com.proto.calculator.NumberChunk;
+import io.grpc.stub.StreamObserver;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Sends numbers on a client stream in chunks rather than one message each: a chunk is sent once it
+ * holds maxChunkSize numbers, or maxDelay after its first number, whichever comes first.
+ * <p>
+ * Thread-safe, numbers can be added from any thread. The request observer is only used while holding the lock,
+ * as a gRPC stream must not be written from several threads at once.
+ *
+ * @param <T> the request type of the stream, built from a chunk by toRequest
+ */
+public class NumberBatcher<T> {
+
+    private final StreamObserver<T> requestObserver;
+    private final Function<NumberChunk, T> toRequest;
+    private final int maxChunkSize;
+    private final long maxDelayNanos;
+    private final ScheduledExecutorService scheduler;
+
+    // guarded by this
+    private NumberChunk.Builder chunk = NumberChunk.newBuilder();
+    private ScheduledFuture<?> flushTimer;
+    private boolean completed = false;
+
+    public NumberBatcher(StreamObserver<T> requestObserver, Function<NumberChunk, T> toRequest,
+                         int maxChunkSize, long maxDelay, TimeUnit unit, ScheduledExecutorService scheduler) {
+        if (maxChunkSize < 1) {
+            throw new IllegalArgumentException("The chunk size must be at least 1");
+        }
+        this.requestObserver = requestObserver;
+        this.toRequest = toRequest;
+        this.maxChunkSize = maxChunkSize;
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+        this.scheduler = scheduler;
+    }
+
+    public synchronized void add(int number) {
+        if (completed) {
+            throw new IllegalStateException("The stream is already completed");
+        }
+        chunk.addNumbers(number);
+
+        if (chunk.getNumbersCount() >= maxChunkSize) {
+            flush();
+        } else if (flushTimer == null) {
+            flushTimer = scheduler.schedule(this::flush, maxDelayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Sends the numbers added so far, if any.
+     */
+    public synchronized void flush() {
+        if (flushTimer != null) {
+            flushTimer.cancel(false);
+            flushTimer = null;
+        }
+        if (chunk.getNumbersCount() == 0 || completed) {
+            return;
+        }
+
+        requestObserver.onNext(toRequest.apply(chunk.build()));
+        chunk = NumberChunk.newBuilder();
+    }
+
+    /**
+     * Sends the numbers left, then completes the stream.
+     */
+    public synchronized void onCompleted() {
+        flush();
+        completed = true;
+        requestObserver.onCompleted();
+    }
+}
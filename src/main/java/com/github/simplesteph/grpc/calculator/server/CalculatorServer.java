@@ -1,27 +1,42 @@
 package com.github.simplesteph.grpc.calculator.server;
 
-import io.grpc.Server;
-import io.grpc.ServerBuilder;
+import com.github.simplesteph.grpc.common.Logging;
+import com.github.simplesteph.grpc.server.ServerConfig;
+import com.github.simplesteph.grpc.server.ServerLauncher;
 import io.grpc.protobuf.services.ProtoReflectionService;
 
 import java.io.IOException;
+import java.util.logging.Logger;
 
 public class CalculatorServer {
 
+    private static final Logger logger = Logger.getLogger(CalculatorServer.class.getName());
+
     public static void main(String[] args) throws IOException, InterruptedException {
-        Server server = ServerBuilder.forPort(50052)
-                .addService(new CalculatorServiceImpl())
+        // -Dlog.level=debug logs every call
+        Logging.configure();
+        // up to 100000 factorizations are kept in memory
+        FactorizationCache factorizationCache = new FactorizationCache(100_000);
+
+        CalculatorServiceImpl calculatorService = new CalculatorServiceImpl(factorizationCache);
+
+        ServerLauncher launcher = new ServerLauncher(ServerConfig.fromSystemProperties(50052))
+                .addService(calculatorService)
                 .addService(ProtoReflectionService.newInstance()) // reflection
-                .build();
+                .addMetricsSource(factorizationCache)
+                .addMetricsSource(calculatorService);
 
-        server.start();
+        launcher.start();
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            System.out.println("Received Shutdown Request");
-            server.shutdown();
-            System.out.println("Successfully stopped the server");
+            logger.info("Received Shutdown Request");
+            launcher.shutdown();
+            logger.info("Factorization cache hits: " + factorizationCache.hitCount()
+                    + ", misses: " + factorizationCache.missCount()
+                    + ", evictions: " + factorizationCache.evictionCount());
+            logger.info("Successfully stopped the server");
         }));
 
-        server.awaitTermination();
+        launcher.awaitTermination();
     }
 }
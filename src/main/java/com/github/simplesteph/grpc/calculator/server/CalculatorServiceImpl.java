@@ -1,11 +1,55 @@
 package com.github.simplesteph.grpc.calculator.server;
 
+import com.github.simplesteph.grpc.common.SingleFlight;
+import com.github.simplesteph.grpc.server.ServerMetrics;
 import com.proto.calculator.*;
 import io.grpc.Context;
 import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
 
-public class CalculatorServiceImpl extends CalculatorServiceGrpc.CalculatorServiceImplBase {
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.BooleanSupplier;
+
+/**
+ * How many factorizations were computed and how many joined one in flight are served as the factorizations_* metrics.
+ */
+public class CalculatorServiceImpl extends CalculatorServiceGrpc.CalculatorServiceImplBase implements ServerMetrics.Source {
+
+    // batchPrimeDecomposition splits its numbers until a task has at most this many to factor
+    private static final int BATCH_TASK_SIZE = 64;
+
+    private final FactorizationCache factorizationCache;
+    // the factorizations in flight, of the numbers not cached yet
+    private final SingleFlight<Long, long[]> factorizations = new SingleFlight<>();
+
+    // sends the results of the findMaximum streams that emit on a timer
+    private final ScheduledExecutorService emissionScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "calculator-emission");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public CalculatorServiceImpl() {
+        this(new FactorizationCache(100_000));
+    }
+
+    public CalculatorServiceImpl(FactorizationCache factorizationCache) {
+        this.factorizationCache = factorizationCache;
+    }
+
+    @Override
+    public void writePrometheus(StringBuilder out) {
+        ServerMetrics.header(out, "factorizations_executed_total", "counter", "Factorizations that were not cached and were computed.");
+        ServerMetrics.sample(out, "factorizations_executed_total", factorizations.executionCount());
+        ServerMetrics.header(out, "factorizations_coalesced_total", "counter", "Factorizations that joined one of the same number already in flight.");
+        ServerMetrics.sample(out, "factorizations_coalesced_total", factorizations.coalescedCount());
+    }
 
     @Override
     public void sum(SumRequest request, StreamObserver<SumResponse> responseObserver) {
@@ -20,41 +64,191 @@ public class CalculatorServiceImpl extends CalculatorServiceGrpc.CalculatorServi
 
     }
 
+    @Override
+    public void batchSum(BatchSumRequest request, StreamObserver<BatchSumResponse> responseObserver) {
+
+        int count = request.getFirstNumbersCount();
+        if (request.getSecondNumbersCount() != count) {
+            responseObserver.onError(
+                    Status.INVALID_ARGUMENT
+                            .withDescription("There must be as many first numbers as second numbers")
+                            .augmentDescription("First numbers sent: " + count
+                                    + ", second numbers sent: " + request.getSecondNumbersCount())
+                            .asRuntimeException()
+            );
+            return;
+        }
+
+        // copied to plain arrays, so the loop that adds them can be vectorized by the JIT
+        int[] firstNumbers = new int[count];
+        int[] secondNumbers = new int[count];
+        for (int i = 0; i < count; i++) {
+            firstNumbers[i] = request.getFirstNumbers(i);
+            secondNumbers[i] = request.getSecondNumbers(i);
+        }
+
+        long[] sums = new long[count];
+        for (int i = 0; i < count; i++) {
+            sums[i] = (long) firstNumbers[i] + secondNumbers[i];
+        }
+
+        BatchSumResponse.Builder response = BatchSumResponse.newBuilder();
+        for (long sum : sums) {
+            response.addSumResults(sum);
+        }
+        responseObserver.onNext(response.build());
+        responseObserver.onCompleted();
+
+    }
+
     @Override
     public void primeNumberDecomposition(PrimeNumberDecompositionRequest request, StreamObserver<PrimeNumberDecompositionResponse> responseObserver) {
 
-        Long number = request.getNumber();
-        Long divisor = 2L;
+        long number = request.getNumber();
+        long[] cached = factorizationCache.get(number);
+        if (cached != null) {
+            sendPrimeFactors(cached, responseObserver);
+            return;
+        }
+
+        // the concurrent calls for the same number share one factorization, run by the cores of the common
+        // fork/join pool. It goes on while any of them waits, and stops using the CPU once all are cancelled
+        CompletableFuture<long[]> factoring = factorizations.execute(number, abandoned ->
+                CompletableFuture.supplyAsync(() -> factorizationCache.load(number, abandoned), ForkJoinPool.commonPool()));
+        Context.current().addListener(context -> factoring.cancel(false), Runnable::run);
 
-        while (number > 1) {
-            if (number % divisor == 0) {
-                number = number / divisor;
-                responseObserver.onNext(PrimeNumberDecompositionResponse.newBuilder()
-                        .setPrimeFactor(divisor)
-                        .build());
+        factoring.whenComplete((primeFactors, error) -> {
+            if (error == null) {
+                sendPrimeFactors(primeFactors, responseObserver);
+            } else if (error instanceof CancellationException || error.getCause() instanceof CancellationException) {
+                responseObserver.onError(
+                        Status.CANCELLED
+                                .withDescription("The call was cancelled")
+                                .asRuntimeException()
+                );
             } else {
-                divisor = divisor + 1;
-                System.out.println(divisor);
+                responseObserver.onError(
+                        Status.INTERNAL
+                                .withDescription("Failed to factor the number")
+                                .augmentDescription(String.valueOf(error.getCause() != null ? error.getCause() : error))
+                                .asRuntimeException()
+                );
             }
+        });
+    }
+
+    private static void sendPrimeFactors(long[] primeFactors, StreamObserver<PrimeNumberDecompositionResponse> responseObserver) {
+        for (long primeFactor : primeFactors) {
+            responseObserver.onNext(PrimeNumberDecompositionResponse.newBuilder()
+                    .setPrimeFactor(primeFactor)
+                    .build());
         }
         responseObserver.onCompleted();
+    }
 
+    @Override
+    public void batchPrimeDecomposition(BatchPrimeDecompositionRequest request, StreamObserver<BatchPrimeDecompositionResponse> responseObserver) {
+
+        Context context = Context.current();
+
+        PrimeFactorization[] factorizations = new PrimeFactorization[request.getNumbersCount()];
+        try {
+            // the numbers are factored by the cores of the common fork/join pool, we wait for them
+            ForkJoinPool.commonPool().invoke(new BatchFactorization(
+                    request.getNumbersList(), factorizations, 0, factorizations.length, context::isCancelled));
+        } catch (CancellationException e) {
+            responseObserver.onError(
+                    Status.CANCELLED
+                            .withDescription("The call was cancelled")
+                            .asRuntimeException()
+            );
+            return;
+        }
+
+        BatchPrimeDecompositionResponse.Builder response = BatchPrimeDecompositionResponse.newBuilder();
+        for (PrimeFactorization factorization : factorizations) {
+            response.addFactorizations(factorization);
+        }
+        responseObserver.onNext(response.build());
+        responseObserver.onCompleted();
+    }
+
+    /**
+     * Factors numbers[from, to) into factorizations[from, to), splitting the range in halves
+     * until it is small enough to be worth a task.
+     */
+    private class BatchFactorization extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Long> numbers;
+        private final PrimeFactorization[] factorizations;
+        private final int from;
+        private final int to;
+        private final BooleanSupplier cancelled;
+
+        BatchFactorization(List<Long> numbers, PrimeFactorization[] factorizations,
+                           int from, int to, BooleanSupplier cancelled) {
+            this.numbers = numbers;
+            this.factorizations = factorizations;
+            this.from = from;
+            this.to = to;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > BATCH_TASK_SIZE) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new BatchFactorization(numbers, factorizations, from, middle, cancelled),
+                        new BatchFactorization(numbers, factorizations, middle, to, cancelled));
+                return;
+            }
+
+            for (int i = from; i < to; i++) {
+                if (cancelled.getAsBoolean()) {
+                    throw new CancellationException("The batch was cancelled");
+                }
+                long number = numbers.get(i);
+                factorizations[i] = toFactorization(number, factorizationCache.factor(number, cancelled));
+            }
+        }
+    }
+
+    // groups the repeated primes of a sorted factorization into primes and exponents
+    private static PrimeFactorization toFactorization(long number, long[] primeFactors) {
+        PrimeFactorization.Builder factorization = PrimeFactorization.newBuilder().setNumber(number);
+        int i = 0;
+        while (i < primeFactors.length) {
+            long prime = primeFactors[i];
+            int exponent = 0;
+            while (i < primeFactors.length && primeFactors[i] == prime) {
+                exponent++;
+                i++;
+            }
+            factorization.addPrimes(prime).addExponents(exponent);
+        }
+        return factorization.build();
     }
 
     @Override
     public StreamObserver<ComputeAverageRequest> computeAverage(StreamObserver<ComputeAverageResponse> responseObserver) {
 
         StreamObserver<ComputeAverageRequest> requestObserver = new StreamObserver<ComputeAverageRequest>() {
-            // running sum and count
-            int sum = 0;
-            int count = 0;
+            // running sum, count, variance and percentiles, in fixed memory
+            final StreamingStatistics statistics = new StreamingStatistics();
 
             @Override
             public void onNext(ComputeAverageRequest value) {
-                // increment the sum
-                sum += value.getNumber();
-                // increment the count
-                count += 1;
+                // no allocation here, streams can be hundreds of millions of numbers long
+                if (value.hasChunk()) {
+                    NumberChunk chunk = value.getChunk();
+                    for (int i = 0; i < chunk.getNumbersCount(); i++) {
+                        statistics.add(chunk.getNumbers(i));
+                    }
+                } else {
+                    statistics.add(value.getNumber());
+                }
             }
 
             @Override
@@ -65,10 +259,17 @@ public class CalculatorServiceImpl extends CalculatorServiceGrpc.CalculatorServi
             @Override
             public void onCompleted() {
                 // compute average
-                double average = (double) sum / count;
                 responseObserver.onNext(
                         ComputeAverageResponse.newBuilder()
-                                .setAverage(average)
+                                .setAverage(statistics.mean())
+                                .setCount(statistics.count())
+                                .setSum(statistics.sum())
+                                .setMin(statistics.min())
+                                .setMax(statistics.max())
+                                .setVariance(statistics.variance())
+                                .setP50(statistics.percentile(50))
+                                .setP95(statistics.percentile(95))
+                                .setP99(statistics.percentile(99))
                                 .build()
                 );
                 responseObserver.onCompleted();
@@ -81,42 +282,7 @@ public class CalculatorServiceImpl extends CalculatorServiceGrpc.CalculatorServi
     @Override
     public StreamObserver<FindMaximumRequest> findMaximum(StreamObserver<FindMaximumResponse> responseObserver) {
 
-        return new StreamObserver<FindMaximumRequest>() {
-
-            int currentMaximum = 0;
-
-            @Override
-            public void onNext(FindMaximumRequest value) {
-                int currentNumber = value.getNumber();
-
-                if (currentNumber > currentMaximum) {
-                    currentMaximum = currentNumber;
-                    responseObserver.onNext(
-                            FindMaximumResponse.newBuilder()
-                                    .setMaximum(currentMaximum)
-                                    .build()
-                    );
-                } else {
-                    // nothing
-                }
-            }
-
-            @Override
-            public void onError(Throwable t) {
-                responseObserver.onCompleted();
-            }
-
-            @Override
-            public void onCompleted() {
-                // send the current last maximum
-                responseObserver.onNext(
-                        FindMaximumResponse.newBuilder()
-                                .setMaximum(currentMaximum)
-                                .build());
-                // the server is done sending data
-                responseObserver.onCompleted();
-            }
-        };
+        return new FindMaximumObserver(responseObserver, emissionScheduler);
 
     }
 
@@ -145,4 +311,35 @@ public class CalculatorServiceImpl extends CalculatorServiceGrpc.CalculatorServi
 
 
     }
+
+    @Override
+    public void batchSquareRoot(BatchSquareRootRequest request, StreamObserver<BatchSquareRootResponse> responseObserver) {
+
+        int count = request.getNumbersCount();
+        int[] numbers = new int[count];
+        for (int i = 0; i < count; i++) {
+            numbers[i] = request.getNumbers(i);
+        }
+
+        // Math.sqrt is an intrinsic the JIT can vectorize, a negative number gives NaN
+        double[] numberRoots = new double[count];
+        for (int i = 0; i < count; i++) {
+            numberRoots[i] = Math.sqrt(numbers[i]);
+        }
+
+        BatchSquareRootResponse.Builder response = BatchSquareRootResponse.newBuilder();
+        for (int i = 0; i < count; i++) {
+            response.addNumberRoots(numberRoots[i]);
+            if (numbers[i] < 0) {
+                // the same error as squareRoot, for this number only
+                response.addErrors(BatchError.newBuilder()
+                        .setIndex(i)
+                        .setErrorCode(Status.Code.INVALID_ARGUMENT.value())
+                        .setErrorMessage("The number being sent is not positive\nNumber sent: " + numbers[i]));
+            }
+        }
+        responseObserver.onNext(response.build());
+        responseObserver.onCompleted();
+
+    }
 }
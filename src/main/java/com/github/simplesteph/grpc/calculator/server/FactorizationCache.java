@@ -0,0 +1,132 @@
+package com.github.simplesteph.grpc.calculator.server;
+
+import com.github.simplesteph.grpc.server.ServerMetrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Bounded in-process cache of prime factorizations keyed by number, with least recently used eviction.
+ * <p>
+ * The entries are spread over segments that each have their own lock, so concurrent lookups of
+ * different numbers rarely contend. A factorization never changes, so entries don't expire.
+ * <p>
+ * Its counters are served as the factorization_cache_* metrics once added to a server's metrics.
+ */
+public class FactorizationCache implements ServerMetrics.Source {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public FactorizationCache(int maximumSize) {
+        if (maximumSize < SEGMENTS) {
+            throw new IllegalArgumentException("The maximum size must be at least " + SEGMENTS);
+        }
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maximumSize / SEGMENTS);
+        }
+    }
+
+    /**
+     * Returns the prime factors of the number, from the cache or computed by {@link PrimeFactorizer}
+     * outside of any lock. The returned array is shared and must not be modified.
+     *
+     * @throws java.util.concurrent.CancellationException if the factorization was cancelled
+     */
+    public long[] factor(long number, BooleanSupplier cancelled) {
+        long[] cached = get(number);
+        return cached != null ? cached : load(number, cancelled);
+    }
+
+    /**
+     * @return the cached prime factors of the number, null if they are not cached
+     */
+    public long[] get(long number) {
+        Segment segment = segmentFor(number);
+        synchronized (segment) {
+            long[] cached = segment.entries.get(number);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Computes the prime factors of the number outside of any lock, and caches them.
+     *
+     * @throws java.util.concurrent.CancellationException if the factorization was cancelled
+     */
+    public long[] load(long number, BooleanSupplier cancelled) {
+        long[] primeFactors = PrimeFactorizer.factor(number, cancelled);
+        Segment segment = segmentFor(number);
+        synchronized (segment) {
+            segment.entries.put(number, primeFactors);
+        }
+        return primeFactors;
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public void writePrometheus(StringBuilder out) {
+        ServerMetrics.header(out, "factorization_cache_hits_total", "counter", "Factorizations served from the cache.");
+        ServerMetrics.sample(out, "factorization_cache_hits_total", hitCount());
+        ServerMetrics.header(out, "factorization_cache_misses_total", "counter", "Factorizations that were not cached.");
+        ServerMetrics.sample(out, "factorization_cache_misses_total", missCount());
+        ServerMetrics.header(out, "factorization_cache_evictions_total", "counter", "Factorizations dropped from the cache to make room.");
+        ServerMetrics.sample(out, "factorization_cache_evictions_total", evictionCount());
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment segmentFor(long number) {
+        int hash = Long.hashCode(number);
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    private class Segment {
+        final LinkedHashMap<Long, long[]> entries;
+
+        Segment(int maximumSize) {
+            // access order, so the eldest entry is the least recently used one
+            this.entries = new LinkedHashMap<Long, long[]>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, long[]> eldest) {
+                    if (size() > maximumSize) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+    }
+}
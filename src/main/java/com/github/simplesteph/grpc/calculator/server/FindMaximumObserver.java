@@ -0,0 +1,241 @@
+package com.github.simplesteph.grpc.calculator.server;
+
+import com.proto.calculator.FindMaximumOptions;
+import com.proto.calculator.FindMaximumRequest;
+import com.proto.calculator.FindMaximumResponse;
+import com.proto.calculator.NumberChunk;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the maximum of a findMaximum stream in the mode picked by the options of its first message,
+ * and answers as its emission policy says.
+ * The stream and the emission timer run on different threads, hence the lock.
+ */
+class FindMaximumObserver implements StreamObserver<FindMaximumRequest> {
+
+    private static final int MAX_K = 10_000;
+
+    private final StreamObserver<FindMaximumResponse> responseObserver;
+    private final ScheduledExecutorService scheduler;
+
+    // guarded by this
+    private FindMaximumOptions options;
+    private boolean done = false;
+    private ScheduledFuture<?> emissionTimer;
+    private long valuesSinceEmission = 0;
+
+    // GLOBAL
+    private boolean hasMaximum = false;
+    private int maximum;
+    // SLIDING_WINDOW, keyed by position in the stream or by arrival time
+    private SlidingWindowMaximum window;
+    private long position = 0;
+    // TOP_K
+    private TopKHeap topK;
+
+    FindMaximumObserver(StreamObserver<FindMaximumResponse> responseObserver, ScheduledExecutorService scheduler) {
+        this.responseObserver = responseObserver;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public synchronized void onNext(FindMaximumRequest value) {
+        if (done) {
+            return;
+        }
+        if (options == null && !start(value.getOptions())) {
+            return;
+        }
+
+        boolean changed = false;
+        long now = System.nanoTime();
+        if (value.hasChunk()) {
+            NumberChunk chunk = value.getChunk();
+            for (int i = 0; i < chunk.getNumbersCount(); i++) {
+                changed |= add(chunk.getNumbers(i), now);
+            }
+        } else if (value.getValueCase() == FindMaximumRequest.ValueCase.NUMBER) {
+            changed = add(value.getNumber(), now);
+        }
+
+        if (changed && options.getEmission() == FindMaximumOptions.Emission.ON_CHANGE) {
+            emit(now);
+        }
+    }
+
+    @Override
+    public synchronized void onError(Throwable t) {
+        // the client went away, no one to answer
+        stop();
+    }
+
+    @Override
+    public synchronized void onCompleted() {
+        if (done) {
+            return;
+        }
+        stop();
+        // send the current last maximum
+        emit(System.nanoTime());
+        // the server is done sending data
+        responseObserver.onCompleted();
+    }
+
+    // validates the options and sets up the tracking, answers INVALID_ARGUMENT if they are not valid
+    private boolean start(FindMaximumOptions options) {
+        String error = null;
+        switch (options.getMode()) {
+            case GLOBAL:
+                break;
+            case SLIDING_WINDOW:
+                if ((options.getWindowSize() > 0) == (options.getWindowMillis() > 0)) {
+                    error = "A sliding window needs either a positive window_size or a positive window_millis";
+                } else {
+                    window = new SlidingWindowMaximum();
+                }
+                break;
+            case TOP_K:
+                if (options.getK() < 1 || options.getK() > MAX_K) {
+                    error = "k must be between 1 and " + MAX_K + ", k sent: " + options.getK();
+                } else {
+                    topK = new TopKHeap(options.getK());
+                }
+                break;
+            default:
+                error = "Unknown mode: " + options.getMode();
+        }
+        switch (options.getEmission()) {
+            case ON_CHANGE:
+                break;
+            case EVERY_N:
+                if (options.getEmitEvery() < 1) {
+                    error = "emit_every must be positive, emit_every sent: " + options.getEmitEvery();
+                }
+                break;
+            case TIMER:
+                if (options.getEmitIntervalMillis() < 1) {
+                    error = "emit_interval_millis must be positive, emit_interval_millis sent: " + options.getEmitIntervalMillis();
+                }
+                break;
+            default:
+                error = "Unknown emission: " + options.getEmission();
+        }
+
+        if (error != null) {
+            done = true;
+            responseObserver.onError(
+                    Status.INVALID_ARGUMENT
+                            .withDescription("The find maximum options are not valid")
+                            .augmentDescription(error)
+                            .asRuntimeException()
+            );
+            return false;
+        }
+
+        this.options = options;
+        if (options.getEmission() == FindMaximumOptions.Emission.TIMER) {
+            long interval = options.getEmitIntervalMillis();
+            emissionTimer = scheduler.scheduleAtFixedRate(this::emitOnTimer, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the result changed
+     */
+    private boolean add(int number, long now) {
+        boolean changed;
+        switch (options.getMode()) {
+            case SLIDING_WINDOW:
+                boolean wasEmpty = expire(now);
+                int before = wasEmpty ? 0 : window.max();
+                position++;
+                window.add(number, options.getWindowSize() > 0 ? position : now);
+                expire(now);
+                changed = wasEmpty || window.max() != before;
+                break;
+            case TOP_K:
+                changed = topK.offer(number);
+                break;
+            default:
+                changed = !hasMaximum || number > maximum;
+                if (changed) {
+                    hasMaximum = true;
+                    maximum = number;
+                }
+        }
+
+        if (options.getEmission() == FindMaximumOptions.Emission.EVERY_N
+                && ++valuesSinceEmission >= options.getEmitEvery()) {
+            emit(now);
+        }
+        return changed;
+    }
+
+    /**
+     * Removes the numbers that left the window.
+     *
+     * @return true if the window is empty
+     */
+    private boolean expire(long now) {
+        if (options.getWindowSize() > 0) {
+            window.evictUpTo(position - options.getWindowSize());
+        } else {
+            window.evictUpTo(now - TimeUnit.MILLISECONDS.toNanos(options.getWindowMillis()));
+        }
+        return window.isEmpty();
+    }
+
+    private synchronized void emitOnTimer() {
+        if (!done) {
+            emit(System.nanoTime());
+        }
+    }
+
+    // sends the current result, if there is one
+    private void emit(long now) {
+        valuesSinceEmission = 0;
+        if (options == null) {
+            // no message received
+            return;
+        }
+
+        FindMaximumResponse.Builder response = FindMaximumResponse.newBuilder();
+        switch (options.getMode()) {
+            case SLIDING_WINDOW:
+                if (expire(now)) {
+                    return;
+                }
+                response.setMaximum(window.max());
+                break;
+            case TOP_K:
+                if (topK.isEmpty()) {
+                    return;
+                }
+                for (int number : topK.toSortedArray()) {
+                    response.addTop(number);
+                }
+                response.setMaximum(response.getTop(0));
+                break;
+            default:
+                if (!hasMaximum) {
+                    return;
+                }
+                response.setMaximum(maximum);
+        }
+        responseObserver.onNext(response.build());
+    }
+
+    private void stop() {
+        done = true;
+        if (emissionTimer != null) {
+            emissionTimer.cancel(false);
+            emissionTimer = null;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.github.simplesteph.grpc.calculator.server;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Factors any positive 64-bit number into primes, in milliseconds at most.
+ * <p>
+ * Small factors are removed by trial division by a table of the primes below 2^16. What is left is either
+ * 1, a prime, or a product of large primes: primality is decided by a deterministic Miller-Rabin test,
+ * and composites are split by Pollard's rho with Brent's cycle detection. Both work on Montgomery
+ * representations, so the modular products need no division.
+ */
+public final class PrimeFactorizer {
+
+    private static final int SMALL_PRIME_LIMIT = 1 << 16;
+    private static final int[] SMALL_PRIMES = primesBelow(SMALL_PRIME_LIMIT);
+
+    // these bases give a deterministic Miller-Rabin test for every 64-bit number (Jim Sinclair)
+    private static final long[] MILLER_RABIN_BASES = {2, 325, 9375, 28178, 450775, 9780504, 1795265022};
+
+    // number of rho steps between two gcds, and between two checks for cancellation
+    private static final int RHO_BLOCK = 128;
+
+    private PrimeFactorizer() {
+    }
+
+    /**
+     * @param cancelled checked regularly while factoring large numbers, to give up once no one waits for the result
+     * @return the prime factors of the number in ascending order, repeated as many times as they divide it,
+     * none for a number below 2
+     * @throws CancellationException if cancelled returned true
+     */
+    public static long[] factor(long number, BooleanSupplier cancelled) {
+        // a 64-bit number has at most 63 prime factors
+        long[] factors = new long[63];
+        int count = 0;
+
+        long n = number;
+        for (int prime : SMALL_PRIMES) {
+            if ((long) prime * prime > n) {
+                break;
+            }
+            while (n % prime == 0) {
+                factors[count++] = prime;
+                n /= prime;
+            }
+        }
+
+        if (n > 1) {
+            if (n < (long) SMALL_PRIME_LIMIT * SMALL_PRIME_LIMIT) {
+                // no factor below its square root
+                factors[count++] = n;
+            } else {
+                count = factorLarge(n, factors, count, cancelled);
+            }
+        }
+
+        long[] primeFactors = Arrays.copyOf(factors, count);
+        Arrays.sort(primeFactors);
+        return primeFactors;
+    }
+
+    /**
+     * Factors an odd number without factor below SMALL_PRIME_LIMIT.
+     *
+     * @return the new number of factors
+     */
+    private static int factorLarge(long n, long[] factors, int count, BooleanSupplier cancelled) {
+        Montgomery montgomery = new Montgomery(n);
+        if (montgomery.isProbablePrime()) {
+            factors[count++] = n;
+            return count;
+        }
+
+        long divisor = montgomery.pollardBrent(cancelled);
+        count = factorLarge(divisor, factors, count, cancelled);
+        return factorLarge(n / divisor, factors, count, cancelled);
+    }
+
+    private static int[] primesBelow(int limit) {
+        boolean[] composite = new boolean[limit];
+        int count = 0;
+        for (int i = 2; i < limit; i++) {
+            if (!composite[i]) {
+                count++;
+                for (long multiple = (long) i * i; multiple < limit; multiple += i) {
+                    composite[(int) multiple] = true;
+                }
+            }
+        }
+
+        int[] primes = new int[count];
+        int index = 0;
+        for (int i = 2; i < limit; i++) {
+            if (!composite[i]) {
+                primes[index++] = i;
+            }
+        }
+        return primes;
+    }
+
+    private static long gcd(long a, long b) {
+        // binary gcd, a and b are positive or zero
+        if (a == 0) {
+            return b;
+        }
+        if (b == 0) {
+            return a;
+        }
+        int shift = Long.numberOfTrailingZeros(a | b);
+        a >>= Long.numberOfTrailingZeros(a);
+        do {
+            b >>= Long.numberOfTrailingZeros(b);
+            if (a > b) {
+                long t = a;
+                a = b;
+                b = t;
+            }
+            b -= a;
+        } while (b != 0);
+        return a << shift;
+    }
+
+    // the high 64 bits of the unsigned 128-bit product, what Math.unsignedMultiplyHigh does on recent JDKs
+    private static long unsignedMultiplyHigh(long a, long b) {
+        long aLow = a & 0xFFFFFFFFL;
+        long aHigh = a >>> 32;
+        long bLow = b & 0xFFFFFFFFL;
+        long bHigh = b >>> 32;
+
+        long lowLow = aLow * bLow;
+        long highLow = aHigh * bLow;
+        long lowHigh = aLow * bHigh;
+        long highHigh = aHigh * bHigh;
+
+        long cross = (lowLow >>> 32) + (highLow & 0xFFFFFFFFL) + lowHigh;
+        return highHigh + (highLow >>> 32) + (cross >>> 32);
+    }
+
+    /**
+     * Arithmetic modulo an odd n below 2^63, on Montgomery representations: x is represented by x * 2^64 mod n.
+     */
+    private static final class Montgomery {
+
+        private final long n;
+        // -n^-1 mod 2^64
+        private final long nPrime;
+        // 2^64 mod n, the representation of 1
+        private final long one;
+        // 2^128 mod n, to convert to the representation
+        private final long r2;
+
+        Montgomery(long n) {
+            this.n = n;
+
+            // Newton's iteration doubles the number of correct low bits, n is its own inverse mod 8
+            long inverse = n;
+            for (int i = 0; i < 5; i++) {
+                inverse *= 2 - n * inverse;
+            }
+            this.nPrime = -inverse;
+
+            this.one = Long.remainderUnsigned(-n, n);
+            long r = one;
+            for (int i = 0; i < 64; i++) {
+                // r < n < 2^63, so doubling it doesn't overflow the unsigned range
+                r <<= 1;
+                if (Long.compareUnsigned(r, n) >= 0) {
+                    r -= n;
+                }
+            }
+            this.r2 = r;
+        }
+
+        long toMontgomery(long x) {
+            return multiply(x % n, r2);
+        }
+
+        long multiply(long a, long b) {
+            return reduce(unsignedMultiplyHigh(a, b), a * b);
+        }
+
+        // (high * 2^64 + low) / 2^64 mod n, for a product of two numbers below n
+        private long reduce(long high, long low) {
+            long m = low * nPrime;
+            // low + low(m * n) is 0 mod 2^64, it carries unless low is 0
+            long t = high + unsignedMultiplyHigh(m, n) + (low != 0 ? 1 : 0);
+            return Long.compareUnsigned(t, n) >= 0 ? t - n : t;
+        }
+
+        private long pow(long base, long exponent) {
+            long result = one;
+            while (exponent > 0) {
+                if ((exponent & 1) != 0) {
+                    result = multiply(result, base);
+                }
+                base = multiply(base, base);
+                exponent >>>= 1;
+            }
+            return result;
+        }
+
+        boolean isProbablePrime() {
+            long d = n - 1;
+            int s = Long.numberOfTrailingZeros(d);
+            d >>= s;
+            long minusOne = n - one;
+
+            for (long base : MILLER_RABIN_BASES) {
+                long a = base % n;
+                if (a == 0) {
+                    continue;
+                }
+                long x = pow(toMontgomery(a), d);
+                if (x == one || x == minusOne) {
+                    continue;
+                }
+                boolean witness = true;
+                for (int i = 1; i < s && witness; i++) {
+                    x = multiply(x, x);
+                    witness = x != minusOne;
+                }
+                if (witness) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Finds a non trivial divisor of n, which must be composite.
+         */
+        long pollardBrent(BooleanSupplier cancelled) {
+            for (long c = 1; ; c++) {
+                long increment = toMontgomery(c);
+                long y = toMontgomery(2);
+                long x = y;
+                long saved = y;
+                long product = one;
+                long g = 1;
+
+                for (int r = 1; g == 1; r <<= 1) {
+                    x = y;
+                    for (int i = 0; i < r; i++) {
+                        y = step(y, increment);
+                    }
+                    for (int k = 0; k < r && g == 1; k += RHO_BLOCK) {
+                        if (cancelled.getAsBoolean()) {
+                            throw new CancellationException("Factoring " + n + " was cancelled");
+                        }
+                        saved = y;
+                        int steps = Math.min(RHO_BLOCK, r - k);
+                        for (int i = 0; i < steps; i++) {
+                            y = step(y, increment);
+                            product = multiply(product, x > y ? x - y : y - x);
+                        }
+                        // a product multiple of n gives n, then we step again one by one from the saved point
+                        g = gcd(product, n);
+                    }
+                }
+
+                if (g == n) {
+                    do {
+                        saved = step(saved, increment);
+                        g = gcd(x > saved ? x - saved : saved - x, n);
+                    } while (g == 1);
+                }
+                if (g != n) {
+                    return g;
+                }
+                // both cycles closed at once, we try another polynomial
+            }
+        }
+
+        // x^2 + c
+        private long step(long x, long increment) {
+            long square = multiply(x, x) + increment;
+            return Long.compareUnsigned(square, n) >= 0 ? square - n : square;
+        }
+    }
+}
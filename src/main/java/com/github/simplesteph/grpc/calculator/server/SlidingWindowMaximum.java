@@ -0,0 +1,70 @@
+package com.github.simplesteph.grpc.calculator.server;
+
+/**
+ * The maximum of a sliding window of ints, in O(1) amortized time per value.
+ * <p>
+ * Every value comes with a key that only grows, like its position in the stream or the time it arrived,
+ * and leaves the window once its key is evicted. The values are kept in a deque in decreasing order:
+ * a new value removes the smaller ones before it, as they can never be the maximum again, so the
+ * maximum is always at the front. The deque is a pair of primitive ring buffers.
+ * <p>
+ * Not thread-safe.
+ */
+public final class SlidingWindowMaximum {
+
+    private int[] values = new int[16];
+    private long[] keys = new long[16];
+    private int head = 0;
+    private int size = 0;
+
+    public void add(int value, long key) {
+        // the smaller values before this one are out of the running
+        while (size > 0 && values[index(size - 1)] <= value) {
+            size--;
+        }
+        if (size == values.length) {
+            grow();
+        }
+        values[index(size)] = value;
+        keys[index(size)] = key;
+        size++;
+    }
+
+    /**
+     * Removes the values whose key is lower than or equal to this one.
+     */
+    public void evictUpTo(long key) {
+        while (size > 0 && keys[head] <= key) {
+            head = (head + 1) & (values.length - 1);
+            size--;
+        }
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the maximum of the window, which must not be empty
+     */
+    public int max() {
+        return values[head];
+    }
+
+    private int index(int position) {
+        // the capacity is a power of two
+        return (head + position) & (values.length - 1);
+    }
+
+    private void grow() {
+        int[] grownValues = new int[values.length * 2];
+        long[] grownKeys = new long[keys.length * 2];
+        for (int i = 0; i < size; i++) {
+            grownValues[i] = values[index(i)];
+            grownKeys[i] = keys[index(i)];
+        }
+        values = grownValues;
+        keys = grownKeys;
+        head = 0;
+    }
+}
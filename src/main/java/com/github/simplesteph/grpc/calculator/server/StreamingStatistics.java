@@ -0,0 +1,144 @@
+package com.github.simplesteph.grpc.calculator.server;
+
+/**
+ * Summary statistics of a stream of ints, in fixed memory and without allocating per value.
+ * <p>
+ * The sum is kept in a long, which can't overflow before 2^32 values. The variance uses Welford's
+ * online algorithm, which stays accurate where the naive sum of squares loses its precision.
+ * Percentiles come from log-linear buckets, like HdrHistogram: exact below 64 in absolute value, then
+ * 64 buckets per power of two, so an approximate percentile is within 1.6% of a value of the stream.
+ * <p>
+ * Not thread-safe, the values of a gRPC stream arrive one at a time.
+ */
+public final class StreamingStatistics {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // magnitudes go up to 2^31, the last power of two has its own row of buckets
+    private static final int BUCKETS = SUB_BUCKETS + (32 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    // buckets of the positive values and zero, and of the magnitudes of the negative values
+    private final long[] positiveCounts = new long[BUCKETS];
+    private final long[] negativeCounts = new long[BUCKETS];
+
+    private long count = 0;
+    private long sum = 0;
+    private int min = Integer.MAX_VALUE;
+    private int max = Integer.MIN_VALUE;
+    private double mean = 0;
+    // sum of the squared differences to the mean
+    private double m2 = 0;
+
+    public void add(int value) {
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+
+        if (value >= 0) {
+            positiveCounts[bucketOf(value)]++;
+        } else {
+            negativeCounts[bucketOf(-(long) value)]++;
+        }
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long sum() {
+        return sum;
+    }
+
+    /**
+     * @return the smallest value, 0 if there is none
+     */
+    public int min() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * @return the largest value, 0 if there is none
+     */
+    public int max() {
+        return count == 0 ? 0 : max;
+    }
+
+    /**
+     * @return the mean, NaN if there is no value
+     */
+    public double mean() {
+        return (double) sum / count;
+    }
+
+    /**
+     * @return the population variance, NaN if there is no value
+     */
+    public double variance() {
+        return count == 0 ? Double.NaN : m2 / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the approximate value below or at which this percentage of the values are, NaN if there is no value
+     */
+    public double percentile(double percentile) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        // the extremes are known exactly, the middle of their bucket may be off by up to half its width
+        if (rank == 1) {
+            return min;
+        }
+        if (rank >= count) {
+            return max;
+        }
+
+        // the most negative values come first
+        for (int bucket = BUCKETS - 1; bucket >= 0; bucket--) {
+            rank -= negativeCounts[bucket];
+            if (rank <= 0) {
+                return clamp(-middleOf(bucket));
+            }
+        }
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            rank -= positiveCounts[bucket];
+            if (rank <= 0) {
+                return clamp(middleOf(bucket));
+            }
+        }
+        return max;
+    }
+
+    // the bucket of a magnitude between 0 and 2^31
+    private static int bucketOf(long magnitude) {
+        if (magnitude < SUB_BUCKETS) {
+            return (int) magnitude;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(magnitude);
+        int shift = exponent - SUB_BUCKET_BITS;
+        // the top bit is implied by the exponent, the next SUB_BUCKET_BITS bits pick the bucket
+        int subBucket = (int) (magnitude >>> shift) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+    private static double middleOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        int subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        long lowest = (long) (SUB_BUCKETS + subBucket) << shift;
+        return lowest + ((1L << shift) - 1) / 2.0;
+    }
+
+    // the middle of the first or last bucket can be past the actual min or max
+    private double clamp(double value) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
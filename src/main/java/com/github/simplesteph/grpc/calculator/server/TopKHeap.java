@@ -0,0 +1,82 @@
+package com.github.simplesteph.grpc.calculator.server;
+
+import java.util.Arrays;
+
+/**
+ * The k largest ints of a stream, in a bounded binary min-heap of primitives: the root is the smallest
+ * of the k kept, so a new value is either dropped in O(1) or replaces it in O(log k).
+ * <p>
+ * Not thread-safe.
+ */
+public final class TopKHeap {
+
+    private final int[] heap;
+    private int size = 0;
+
+    public TopKHeap(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1");
+        }
+        this.heap = new int[k];
+    }
+
+    /**
+     * @return true if the value is one of the k largest so far
+     */
+    public boolean offer(int value) {
+        if (size < heap.length) {
+            // sift up
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heap[parent] <= value) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = value;
+            return true;
+        }
+
+        if (value <= heap[0]) {
+            return false;
+        }
+        // replace the root then sift down
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (heap[child] >= value) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = value;
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the values kept, largest first
+     */
+    public int[] toSortedArray() {
+        int[] sorted = Arrays.copyOf(heap, size);
+        Arrays.sort(sorted);
+        for (int i = 0, j = sorted.length - 1; i < j; i++, j--) {
+            int t = sorted[i];
+            sorted[i] = sorted[j];
+            sorted[j] = t;
+        }
+        return sorted;
+    }
+}
@@ -0,0 +1,212 @@
+package com.github.simplesteph.grpc.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Hands the log records to another handler on a background thread, so logging threads never wait on its I/O.
+ * <p>
+ * The records wait in a bounded ring buffer that the logging threads add to without any lock: each one claims
+ * a slot with a compare-and-set on the producer sequence, and publishes its record through the sequence number
+ * of the slot, which the writer, the only consumer, reads back. When the buffer is full, new records are dropped
+ * rather than blocking the caller, and the number of records dropped is logged once the writer catches up.
+ */
+public class AsyncLogHandler extends Handler {
+
+    // the writer hands at most this many records to the target before flushing it
+    private static final int WRITE_BATCH_SIZE = 256;
+    // while records are dropped, their number is logged at most this often
+    private static final long DROP_REPORT_INTERVAL_MILLIS = 1000;
+    // an idle writer checks the buffer at least this often, in case it missed a wake up
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Handler target;
+
+    // the slot of a position is position & mask. Its sequence is the position once free for that position,
+    // and the position + 1 once its record is published, so a producer seeing a smaller one knows it is full
+    private final LogRecord[] records;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    // the next position to claim, shared by the producers
+    private final AtomicLong tail = new AtomicLong();
+    // the next position to read, only used by the writer
+    private long head = 0;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    // set while the writer parks on an empty buffer, so producers only unpark it then
+    private volatile boolean writerParked = false;
+
+    // the dropped records already logged and when, only used by the writer
+    private long droppedReported = 0;
+    private long droppedReportedMillis = 0;
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param capacity the records that may wait for the writer, rounded up to a power of two,
+     *                 past it they are dropped
+     */
+    public AsyncLogHandler(Handler target, int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("The capacity must be between 1 and 2^30: " + capacity);
+        }
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.target = target;
+        this.records = new LogRecord[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.writer = new Thread(this::write, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) {
+            return;
+        }
+        if (!offer(record)) {
+            dropped.incrementAndGet();
+            return;
+        }
+        if (writerParked) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * @return the number of records dropped so far because the buffer was full
+     */
+    public long droppedCount() {
+        return dropped.get();
+    }
+
+    @Override
+    public void flush() {
+        // the writer flushes after each batch, waiting for it here would block the caller
+    }
+
+    /**
+     * Stops the writer once it wrote the records still waiting, waiting for it for at most one second.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        target.close();
+    }
+
+    /**
+     * @return false if the buffer is full
+     */
+    private boolean offer(LogRecord record) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long available = sequences.get(index) - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    records[index] = record;
+                    // a volatile write, so either the writer sees the record or this thread sees it parked
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (available < 0) {
+                // the slot still holds the record of the previous lap
+                return false;
+            }
+            // another producer claimed this position, try the next one
+        }
+    }
+
+    /**
+     * Moves the published records to the batch, up to its size, in the order their positions were claimed.
+     */
+    private void drainTo(List<LogRecord> batch) {
+        while (batch.size() < WRITE_BATCH_SIZE) {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) {
+                // empty, or the producer of the next position has not published it yet
+                return;
+            }
+            batch.add(records[index]);
+            records[index] = null;
+            // frees the slot for the position one lap later
+            sequences.lazySet(index, head + mask + 1);
+            head++;
+        }
+    }
+
+    private void write() {
+        List<LogRecord> batch = new ArrayList<>(WRITE_BATCH_SIZE);
+        while (true) {
+            drainTo(batch);
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+                batch.clear();
+                continue;
+            }
+            if (closed) {
+                // nothing is published anymore, but a record claimed just before may still be on its way
+                long end = tail.get();
+                while (head < end) {
+                    drainTo(batch);
+                    if (batch.isEmpty()) {
+                        Thread.yield();
+                    } else {
+                        writeBatch(batch);
+                        batch.clear();
+                    }
+                }
+                reportDropped();
+                target.flush();
+                return;
+            }
+            writerParked = true;
+            // checked again after setting the flag, a record published before it was set did not unpark
+            drainTo(batch);
+            if (batch.isEmpty() && !closed) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            writerParked = false;
+        }
+    }
+
+    private void writeBatch(List<LogRecord> batch) {
+        for (LogRecord record : batch) {
+            target.publish(record);
+        }
+        if (System.currentTimeMillis() - droppedReportedMillis >= DROP_REPORT_INTERVAL_MILLIS) {
+            reportDropped();
+        }
+        target.flush();
+    }
+
+    private void reportDropped() {
+        long droppedTotal = dropped.get();
+        if (droppedTotal > droppedReported) {
+            LogRecord record = new LogRecord(Level.WARNING,
+                    (droppedTotal - droppedReported) + " log records dropped, the log buffer was full");
+            record.setLoggerName(AsyncLogHandler.class.getName());
+            target.publish(record);
+            droppedReported = droppedTotal;
+            droppedReportedMillis = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.github.simplesteph.grpc.common;
+
+import io.grpc.Context;
+import io.grpc.Deadline;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Carries the deadline of the current gRPC call over to the work done for it.
+ * <p>
+ * The server cancels the {@link Context} of a call when its deadline passes or the client goes away,
+ * so work tied to that context can stop right then instead of running for no one.
+ */
+public final class Deadlines {
+
+    private Deadlines() {
+    }
+
+    /**
+     * The time left before the deadline of the current call, to bound a downstream call with,
+     * like the maxTime of a MongoDB query.
+     *
+     * @return the time left in milliseconds, at least 1 once the deadline has passed,
+     * or 0 when the call has no deadline, which MongoDB reads as no limit
+     */
+    public static long remainingMillis() {
+        return remainingMillis(Context.current().getDeadline());
+    }
+
+    /**
+     * The time left before a deadline captured earlier, for work that continues on threads
+     * where the context of the call is not current, like the callbacks of an asynchronous driver.
+     *
+     * @param deadline the deadline, null for none
+     * @see #remainingMillis()
+     */
+    public static long remainingMillis(Deadline deadline) {
+        if (deadline == null) {
+            return 0;
+        }
+        return Math.max(1, deadline.timeRemaining(TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Runs the task after the delay, in the context of the current call, unless the call is cancelled first:
+     * its cancellation cancels the task at once, without waiting for the delay to pass.
+     */
+    public static ScheduledFuture<?> schedule(ScheduledExecutorService scheduler, Runnable task,
+                                              long delay, TimeUnit unit) {
+        Context context = Context.current();
+        ScheduledFuture<?> future = scheduler.schedule(context.wrap(task), delay, unit);
+        // runs right away if the call is already cancelled
+        context.addListener(cancelled -> future.cancel(false), Runnable::run);
+        return future;
+    }
+}
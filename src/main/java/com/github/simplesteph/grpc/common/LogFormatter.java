@@ -0,0 +1,48 @@
+package com.github.simplesteph.grpc.common;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.logging.Formatter;
+import java.util.logging.LogRecord;
+
+/**
+ * Formats a log record as one line of key=value pairs, easy to read and to parse:
+ * <pre>
+ * time=2019-10-01T10:00:00.123Z level=FINE logger=BlogServiceImpl thread=23 msg="Blog found, sending response"
+ * </pre>
+ * The stack trace of an exception follows on the next lines.
+ */
+public class LogFormatter extends Formatter {
+
+    // getThreadID is deprecated from Java 16 for getLongThreadID, which Java 8 doesn't have
+    @SuppressWarnings("deprecation")
+    @Override
+    public String format(LogRecord record) {
+        String logger = record.getLoggerName() == null ? "" : record.getLoggerName();
+        StringBuilder line = new StringBuilder(128)
+                .append("time=").append(Instant.ofEpochMilli(record.getMillis()))
+                .append(" level=").append(record.getLevel().getName())
+                .append(" logger=").append(logger.substring(logger.lastIndexOf('.') + 1))
+                // the thread that logged: AsyncLogHandler formats on its own thread, so not the current one.
+                // An int, which only differs from the thread id past the first billion threads
+                .append(" thread=").append(record.getThreadID())
+                .append(" msg=\"");
+        String message = formatMessage(record);
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\');
+            }
+            line.append(c == '\n' ? ' ' : c);
+        }
+        line.append('"').append(System.lineSeparator());
+
+        if (record.getThrown() != null) {
+            StringWriter stackTrace = new StringWriter();
+            record.getThrown().printStackTrace(new PrintWriter(stackTrace));
+            line.append(stackTrace);
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,58 @@
+package com.github.simplesteph.grpc.common;
+
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.Logger;
+import java.util.logging.StreamHandler;
+
+/**
+ * Sets up java.util.logging for the servers: one line per record on the standard output, written by an
+ * {@link AsyncLogHandler} so the gRPC threads never wait on the console.
+ * <p>
+ * The level of the project loggers is read from the log.level system property, INFO by default,
+ * FINE (or DEBUG) logs every call. The libraries stay at INFO. Below the level a log call only costs
+ * a level check, as long as its message is a constant or takes its arguments as parameters.
+ * The log.bufferSize property is the number of records that may wait for the console, 8192 by default.
+ */
+public final class Logging {
+
+    private static final String PROJECT_LOGGER = "com.github.simplesteph.grpc";
+
+    // kept, or the level of the project logger could be lost with it
+    private static Logger projectLogger;
+
+    private Logging() {
+    }
+
+    public static synchronized void configure() {
+        StreamHandler console = new StreamHandler(System.out, new LogFormatter());
+        console.setLevel(Level.ALL);
+        AsyncLogHandler handler = new AsyncLogHandler(console, Integer.getInteger("log.bufferSize", 8192));
+
+        Logger root = LogManager.getLogManager().getLogger("");
+        for (Handler existing : root.getHandlers()) {
+            root.removeHandler(existing);
+        }
+        root.addHandler(handler);
+        root.setLevel(Level.INFO);
+
+        projectLogger = Logger.getLogger(PROJECT_LOGGER);
+        projectLogger.setLevel(parseLevel(System.getProperty("log.level", "INFO")));
+    }
+
+    private static Level parseLevel(String name) {
+        switch (name.toUpperCase()) {
+            case "DEBUG":
+                return Level.FINE;
+            case "TRACE":
+                return Level.FINEST;
+            case "WARN":
+                return Level.WARNING;
+            case "ERROR":
+                return Level.SEVERE;
+            default:
+                return Level.parse(name.toUpperCase());
+        }
+    }
+}
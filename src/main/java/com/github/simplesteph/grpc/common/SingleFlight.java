@@ -0,0 +1,152 @@
+package com.github.simplesteph.grpc.common;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+/**
+ * Coalesces concurrent identical requests: while the work for a key is in flight, the requests for the same key
+ * wait for its result instead of doing the work again, like the requests for a hot blog on a cache miss.
+ * Nothing is kept once the work completes, this is not a cache.
+ * <p>
+ * Every request gets its own future. Cancelling it only drops that request: the work goes on while
+ * any request still waits for it, and is told to stop once none does.
+ */
+public final class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, Flight> flights = new ConcurrentHashMap<>();
+
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Joins the work in flight for the key, or starts it.
+     *
+     * @param work starts the work for the key, it is given a supplier that returns true once no request waits
+     *             for the result anymore, to give up early. It is called on this thread, outside of any lock
+     * @return the result of the work, cancel it when the request is cancelled
+     */
+    public CompletableFuture<V> execute(K key, Function<BooleanSupplier, CompletableFuture<V>> work) {
+        while (true) {
+            Flight flight = flights.get(key);
+            if (flight == null) {
+                Flight started = new Flight(key);
+                flight = flights.putIfAbsent(key, started);
+                if (flight == null) {
+                    executions.increment();
+                    CompletableFuture<V> waiter = started.join();
+                    started.run(work);
+                    return waiter;
+                }
+            }
+            CompletableFuture<V> waiter = flight.join();
+            if (waiter != null) {
+                coalesced.increment();
+                return waiter;
+            }
+            // every request of this flight left just now, it is being given up
+        }
+    }
+
+    /**
+     * Makes the next requests for the key start new work, the ones in flight still get the result of the current one.
+     * To be called when the result may have changed, like when a blog is updated.
+     */
+    public void forget(K key) {
+        flights.remove(key);
+    }
+
+    /**
+     * @return how many times the work was started
+     */
+    public long executionCount() {
+        return executions.sum();
+    }
+
+    /**
+     * @return how many requests joined work already in flight
+     */
+    public long coalescedCount() {
+        return coalesced.sum();
+    }
+
+    private final class Flight {
+
+        private final K key;
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+
+        // guarded by this
+        private int waiters = 0;
+        private volatile boolean abandoned = false;
+
+        Flight(K key) {
+            this.key = key;
+        }
+
+        /**
+         * @return the future of a new request, null if the flight was abandoned
+         */
+        CompletableFuture<V> join() {
+            CompletableFuture<V> waiter = new CompletableFuture<>();
+            synchronized (this) {
+                if (abandoned) {
+                    return null;
+                }
+                waiters++;
+            }
+            result.whenComplete((value, error) -> {
+                if (error != null) {
+                    waiter.completeExceptionally(error);
+                } else {
+                    waiter.complete(value);
+                }
+            });
+            waiter.whenComplete((value, error) -> {
+                if (waiter.isCancelled()) {
+                    leave();
+                }
+            });
+            return waiter;
+        }
+
+        void run(Function<BooleanSupplier, CompletableFuture<V>> work) {
+            CompletableFuture<V> future;
+            try {
+                future = work.apply(() -> abandoned);
+            } catch (RuntimeException e) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+            }
+            future.whenComplete((value, error) -> {
+                flights.remove(key, this);
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(value);
+                }
+            });
+            // once every request left, the work is cancelled if it can be, right away if they left while it started
+            CompletableFuture<V> started = future;
+            result.whenComplete((value, error) -> {
+                if (error instanceof CancellationException) {
+                    started.cancel(false);
+                }
+            });
+        }
+
+        private void leave() {
+            synchronized (this) {
+                if (--waiters > 0) {
+                    return;
+                }
+                abandoned = true;
+            }
+            // the next requests start over
+            flights.remove(key, this);
+            result.cancel(false);
+        }
+    }
+}
@@ -102,12 +102,17 @@ public class GreetingClient {
                 // we get a response from the server
                 System.out.println("Received a response from the server");
                 System.out.println(value.getResult());
+                if (value.getTruncated()) {
+                    System.out.println("(truncated by the server)");
+                }
                 // onNext will be called only once
             }
 
             @Override
             public void onError(Throwable t) {
                 // we get an error from the server
+                System.out.println("Server answered with an error: " + Status.fromThrowable(t));
+                latch.countDown();
             }
 
             @Override
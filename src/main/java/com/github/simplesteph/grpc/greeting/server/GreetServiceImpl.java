@@ -1,13 +1,88 @@
 package com.github.simplesteph.grpc.greeting.server;
 
+import com.github.simplesteph.grpc.common.Deadlines;
 import com.proto.greet.*;
-import io.grpc.Context;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 
-import java.util.stream.Stream;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
 
 public class GreetServiceImpl extends GreetServiceGrpc.GreetServiceImplBase {
 
+    // greetManyTimes sends this many greetings, one every interval
+    private static final int GREET_MANY_TIMES_COUNT = 10;
+    public static final long DEFAULT_GREET_MANY_TIMES_INTERVAL_MILLIS = 1000L;
+    // the simulated work of greetWithDeadline
+    private static final long GREET_WITH_DEADLINE_WORK_MILLIS = 300L;
+    // the result of longGreet is sized for a few hundred greetings before it grows
+    private static final int LONG_GREET_INITIAL_CAPACITY = 4096;
+    // even with names of 3 byte characters, the result stays below the 4 MiB message limit of the clients
+    public static final int DEFAULT_LONG_GREET_MAX_LENGTH = 1_000_000;
+
+    /**
+     * What longGreet does with the greetings that do not fit in the maximum length of its result.
+     */
+    public enum LongGreetOverflow {
+        // fail the call with RESOURCE_EXHAUSTED as soon as the result is too long
+        REJECT,
+        // answer with the greetings that fit, and flag the result as truncated
+        TRUNCATE
+    }
+
+    private static final Logger logger = Logger.getLogger(GreetServiceImpl.class.getName());
+
+    // times the greetings of all the greetManyTimes streams and greetWithDeadline calls, a waiting call holds no thread
+    private final ScheduledExecutorService scheduler;
+    private final long greetManyTimesIntervalMillis;
+    private final int longGreetMaxLength;
+    private final LongGreetOverflow longGreetOverflow;
+
+    public GreetServiceImpl() {
+        this(newScheduler(), DEFAULT_GREET_MANY_TIMES_INTERVAL_MILLIS, DEFAULT_LONG_GREET_MAX_LENGTH, LongGreetOverflow.REJECT);
+    }
+
+    public GreetServiceImpl(ScheduledExecutorService scheduler) {
+        this(scheduler, DEFAULT_GREET_MANY_TIMES_INTERVAL_MILLIS, DEFAULT_LONG_GREET_MAX_LENGTH, LongGreetOverflow.REJECT);
+    }
+
+    public GreetServiceImpl(int longGreetMaxLength, LongGreetOverflow longGreetOverflow) {
+        this(newScheduler(), DEFAULT_GREET_MANY_TIMES_INTERVAL_MILLIS, longGreetMaxLength, longGreetOverflow);
+    }
+
+    /**
+     * @param greetManyTimesIntervalMillis the time between two greetings of greetManyTimes,
+     *                                     0 sends them back to back, as fast as the client reads them
+     */
+    public GreetServiceImpl(ScheduledExecutorService scheduler, long greetManyTimesIntervalMillis,
+                            int longGreetMaxLength, LongGreetOverflow longGreetOverflow) {
+        if (greetManyTimesIntervalMillis < 0) {
+            throw new IllegalArgumentException("The interval of greetManyTimes must not be negative");
+        }
+        if (longGreetMaxLength < 0) {
+            throw new IllegalArgumentException("The maximum length of longGreet must not be negative");
+        }
+        this.scheduler = scheduler;
+        this.greetManyTimesIntervalMillis = greetManyTimesIntervalMillis;
+        this.longGreetMaxLength = longGreetMaxLength;
+        this.longGreetOverflow = longGreetOverflow;
+    }
+
+    private static ScheduledExecutorService newScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "greet-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // the timers of cancelled streams leave the queue right away
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
     @Override
     public void greet(GreetRequest request, StreamObserver<GreetResponse> responseObserver) {
         // extract the fields we need
@@ -31,20 +106,80 @@ public class GreetServiceImpl extends GreetServiceGrpc.GreetServiceImplBase {
     public void greetManyTimes(GreetManyTimesRequest request, StreamObserver<GreetManyTimesResponse> responseObserver) {
         String firstName = request.getGreeting().getFirstName();
 
-        try {
-            for (int i = 0; i < 10; i++) {
-                String result = "Hello " + firstName + ", response number: " + i;
+        ServerCallStreamObserver<GreetManyTimesResponse> serverObserver =
+                (ServerCallStreamObserver<GreetManyTimesResponse>) responseObserver;
+
+        GreetManyTimesStreamer streamer = new GreetManyTimesStreamer(firstName, serverObserver);
+        // a response that is due waits for the client to be ready
+        serverObserver.setOnReadyHandler(streamer);
+        // no more responses once the client is gone
+        serverObserver.setOnCancelHandler(streamer::cancel);
+
+        // the first response goes right away
+        streamer.run();
+    }
+
+    /**
+     * Sends the greetings of greetManyTimes an interval apart, without holding a thread in between:
+     * the shared scheduler makes the next greeting due, and it is sent as soon as the client is ready for it.
+     * The scheduler and the gRPC handlers run on different threads, hence the lock.
+     */
+    private class GreetManyTimesStreamer implements Runnable {
+
+        private final String firstName;
+        private final ServerCallStreamObserver<GreetManyTimesResponse> responseObserver;
+
+        // guarded by this
+        private int sent = 0;
+        private boolean due = true;
+        private boolean done = false;
+        private ScheduledFuture<?> timer;
+
+        GreetManyTimesStreamer(String firstName, ServerCallStreamObserver<GreetManyTimesResponse> responseObserver) {
+            this.firstName = firstName;
+            this.responseObserver = responseObserver;
+        }
+
+        @Override
+        public synchronized void run() {
+            while (!done && due) {
+                if (sent == GREET_MANY_TIMES_COUNT) {
+                    // an interval after the last greeting, like the greetings before it
+                    done = true;
+                    responseObserver.onCompleted();
+                    return;
+                }
+                if (!responseObserver.isReady()) {
+                    // onReady will call us again
+                    return;
+                }
+
+                String result = "Hello " + firstName + ", response number: " + sent;
                 GreetManyTimesResponse response = GreetManyTimesResponse.newBuilder()
                         .setResult(result)
                         .build();
 
                 responseObserver.onNext(response);
-                Thread.sleep(1000L);
+                sent++;
+                if (greetManyTimesIntervalMillis > 0) {
+                    due = false;
+                    timer = scheduler.schedule(this::onTimer, greetManyTimesIntervalMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        private synchronized void onTimer() {
+            timer = null;
+            due = true;
+            run();
+        }
+
+        synchronized void cancel() {
+            done = true;
+            if (timer != null) {
+                timer.cancel(false);
+                timer = null;
             }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        } finally {
-            responseObserver.onCompleted();
         }
     }
 
@@ -53,25 +188,55 @@ public class GreetServiceImpl extends GreetServiceGrpc.GreetServiceImplBase {
         // we create the requestObserver that we'll return in this function
         StreamObserver<LongGreetRequest> requestObserver = new StreamObserver<LongGreetRequest>() {
 
-            String result = "";
+            // grows to at most longGreetMaxLength, so each call costs linear time and bounded memory
+            StringBuilder result = new StringBuilder(Math.min(longGreetMaxLength, LONG_GREET_INITIAL_CAPACITY));
+            boolean truncated = false;
+            boolean done = false;
 
             @Override
             public void onNext(LongGreetRequest value) {
+                if (done || truncated) {
+                    // the rest of the stream is read and dropped
+                    return;
+                }
                 // client sends a message
-                result += "Hello " + value.getGreeting().getFirstName() + "! ";
+                String firstName = value.getGreeting().getFirstName();
+                int length = "Hello ".length() + firstName.length() + "! ".length();
+                if (result.length() + length <= longGreetMaxLength) {
+                    result.append("Hello ").append(firstName).append("! ");
+                } else if (longGreetOverflow == LongGreetOverflow.TRUNCATE) {
+                    // keep the whole greetings that fit
+                    truncated = true;
+                } else {
+                    done = true;
+                    result = null;
+                    responseObserver.onError(
+                            Status.RESOURCE_EXHAUSTED
+                                    .withDescription("The greetings do not fit in the result")
+                                    .augmentDescription("The result is limited to " + longGreetMaxLength + " characters")
+                                    .asRuntimeException()
+                    );
+                }
             }
 
             @Override
             public void onError(Throwable t) {
                 // client sends an error
+                done = true;
+                result = null;
             }
 
             @Override
             public void onCompleted() {
+                if (done) {
+                    return;
+                }
+                done = true;
                 // client is done
                 responseObserver.onNext(
                         LongGreetResponse.newBuilder()
-                                .setResult(result)
+                                .setResult(result.toString())
+                                .setTruncated(truncated)
                                 .build()
                 );
                 responseObserver.onCompleted();
@@ -112,20 +277,10 @@ public class GreetServiceImpl extends GreetServiceGrpc.GreetServiceImplBase {
     @Override
     public void greetWithDeadline(GreetWithDeadlineRequest request, StreamObserver<GreetWithDeadlineResponse> responseObserver) {
 
-        Context current = Context.current();
-
-        try {
-
-            for (int i = 0; i < 3; i++) {
-                if (!current.isCancelled()) {
-                    System.out.println("sleep for 100 ms");
-                    Thread.sleep(100);
-                } else {
-                    return;
-                }
-            }
-
-            System.out.println("send response");
+        // the work takes 300 ms, it is waited for on the scheduler rather than by sleeping on this thread
+        logger.fine("Working for " + GREET_WITH_DEADLINE_WORK_MILLIS + " ms");
+        Deadlines.schedule(scheduler, () -> {
+            logger.fine("Sending the response");
             responseObserver.onNext(
                     GreetWithDeadlineResponse.newBuilder()
                             .setResult("hello " + request.getGreeting().getFirstName())
@@ -133,9 +288,8 @@ public class GreetServiceImpl extends GreetServiceGrpc.GreetServiceImplBase {
             );
 
             responseObserver.onCompleted();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-
+        }, GREET_WITH_DEADLINE_WORK_MILLIS, TimeUnit.MILLISECONDS);
+        // if the deadline passes first, the call is cancelled and so is the response:
+        // the client already got DEADLINE_EXCEEDED, there is nothing left to complete
     }
 }
@@ -1,9 +1,9 @@
 package com.github.simplesteph.grpc.greeting.server;
 
-import io.grpc.Server;
-import io.grpc.ServerBuilder;
+import com.github.simplesteph.grpc.common.Logging;
+import com.github.simplesteph.grpc.server.ServerConfig;
+import com.github.simplesteph.grpc.server.ServerLauncher;
 
-import java.io.File;
 import java.io.IOException;
 
 public class GreetingServer {
@@ -11,30 +11,36 @@ public class GreetingServer {
     public static void main(String[] args) throws IOException, InterruptedException {
         System.out.println("Hello gRPC");
 
-        // plaintext server
-        Server server = ServerBuilder.forPort(50051)
-                .addService(new GreetServiceImpl())
-                .build();
+        // -Dlog.level=debug logs every call
+        Logging.configure();
 
-        // secure server
-//        Server server = ServerBuilder.forPort(50051)
-//                .addService(new GreetServiceImpl())
-//                .useTransportSecurity(
-//                        new File("ssl/server.crt"),
-//                        new File("ssl/server.pem")
-//                )
-//                .build();
+        GreetServiceImpl greetService = createGreetService();
 
+        // plaintext server, the launcher serves TLS with
+        // -Dgrpc.tls.certChain=ssl/server.crt -Dgrpc.tls.privateKey=ssl/server.pem
+        ServerLauncher launcher = new ServerLauncher(ServerConfig.fromSystemProperties(50051))
+                .addService(greetService);
 
-        server.start();
+        launcher.start();
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("Received Shutdown Request");
-            server.shutdown();
+            launcher.shutdown();
             System.out.println("Successfully stopped the server");
         }));
 
-        server.awaitTermination();
+        launcher.awaitTermination();
+    }
+
+    /**
+     * The result of longGreet is capped at greet.longGreet.maxLength characters,
+     * -Dgreet.longGreet.overflow=truncate answers with the greetings that fit instead of failing.
+     */
+    public static GreetServiceImpl createGreetService() {
+        return new GreetServiceImpl(
+                Integer.getInteger("greet.longGreet.maxLength", GreetServiceImpl.DEFAULT_LONG_GREET_MAX_LENGTH),
+                GreetServiceImpl.LongGreetOverflow.valueOf(
+                        System.getProperty("greet.longGreet.overflow", "reject").toUpperCase()));
     }
 
 }
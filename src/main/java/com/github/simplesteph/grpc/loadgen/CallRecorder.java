@@ -0,0 +1,98 @@
+package com.github.simplesteph.grpc.loadgen;
+
+import com.github.simplesteph.grpc.server.LatencyHistogram;
+import io.grpc.Status;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The statuses and latencies of the calls of a load, recorded from many threads.
+ * <p>
+ * The service time of a call runs from the moment it was sent. Its response time runs from the moment it should
+ * have been sent: in the open mode, the start the rate gave it, however late the generator sent it; in the closed
+ * mode, a slow call holds back the calls that would have been sent meanwhile, they are added with the latencies
+ * they would have seen, so a stall of the server weighs on the percentiles as much as it would for users.
+ * Only the calls that succeeded are in the latencies.
+ */
+final class CallRecorder {
+
+    private static final Status.Code[] CODES = Status.Code.values();
+
+    // 0 when the intended starts already account for the stalls
+    private final long expectedIntervalNanos;
+
+    private final LatencyHistogram serviceTime = new LatencyHistogram();
+    private final LatencyHistogram responseTime = new LatencyHistogram();
+    private final AtomicLongArray statuses = new AtomicLongArray(CODES.length);
+
+    /**
+     * @param expectedIntervalNanos the usual time between two calls of a stream of the closed mode,
+     *                              0 in the open mode
+     */
+    CallRecorder(long expectedIntervalNanos) {
+        this.expectedIntervalNanos = expectedIntervalNanos;
+    }
+
+    /**
+     * @param intendedStartNanos when the call should have been sent
+     * @param startNanos         when the call was sent
+     */
+    void record(long intendedStartNanos, long startNanos, long endNanos, Status status) {
+        statuses.incrementAndGet(status.getCode().value());
+        if (status.isOk()) {
+            serviceTime.record(endNanos - startNanos);
+            responseTime.recordWithExpectedInterval(endNanos - intendedStartNanos, expectedIntervalNanos);
+        }
+    }
+
+    long okCount() {
+        return statuses.get(Status.Code.OK.value());
+    }
+
+    long callCount() {
+        long count = 0;
+        for (int i = 0; i < statuses.length(); i++) {
+            count += statuses.get(i);
+        }
+        return count;
+    }
+
+    LatencyHistogram serviceTime() {
+        return serviceTime;
+    }
+
+    /**
+     * @param seconds from the first call to the end of the last one
+     */
+    String report(double seconds) {
+        StringBuilder report = new StringBuilder();
+        long calls = callCount();
+        report.append("  calls: ").append(calls).append(", ok: ").append(okCount());
+        for (Status.Code code : CODES) {
+            long count = statuses.get(code.value());
+            if (code != Status.Code.OK && count > 0) {
+                report.append(", ").append(code).append(": ").append(count);
+            }
+        }
+        report.append('\n');
+        report.append(String.format("  throughput: %.1f calls/s%n", okCount() / seconds));
+        report.append(String.format("  latency (ms)   %10s %10s %10s %10s %10s%n", "p50", "p90", "p99", "p99.9", "max"));
+        appendPercentiles(report, "service time ", serviceTime);
+        appendPercentiles(report, "response time", responseTime);
+        if (expectedIntervalNanos > 0) {
+            report.append(String.format("  response time corrected for coordinated omission with an expected interval of %.3f ms%n",
+                    (double) expectedIntervalNanos / TimeUnit.MILLISECONDS.toNanos(1)));
+        }
+        return report.toString();
+    }
+
+    private static void appendPercentiles(StringBuilder report, String name, LatencyHistogram histogram) {
+        report.append(String.format("  %s  %10.3f %10.3f %10.3f %10.3f %10.3f%n", name,
+                histogram.valueAtPercentile(50, TimeUnit.MILLISECONDS),
+                histogram.valueAtPercentile(90, TimeUnit.MILLISECONDS),
+                histogram.valueAtPercentile(99, TimeUnit.MILLISECONDS),
+                histogram.valueAtPercentile(99.9, TimeUnit.MILLISECONDS),
+                histogram.valueAtPercentile(100, TimeUnit.MILLISECONDS)));
+    }
+}
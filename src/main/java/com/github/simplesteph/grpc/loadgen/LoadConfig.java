@@ -0,0 +1,133 @@
+package com.github.simplesteph.grpc.loadgen;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a {@link LoadGenerator} runs, read from load.* system properties:
+ * <ul>
+ * <li>load.target: the host:port of the server, by default none: the services are started in this JVM,
+ * on a free port of the loopback interface, with the blogs in a temporary file</li>
+ * <li>load.rpc: the RPCs to load one after the other, comma separated, like Greet,ReadBlog, or "all",
+ * Greet by default</li>
+ * <li>load.mode: "closed" (default) keeps load.streams calls in flight on each channel, each one started when
+ * the previous one ends; "open" starts load.rate calls per second whatever the server does, and queues them
+ * in the generator once load.streams calls are in flight on every channel</li>
+ * <li>load.rate: the calls per second of the open mode, 1000 by default</li>
+ * <li>load.channels: the channels, each with its own connection, 1 by default</li>
+ * <li>load.streams: the calls in flight on each channel, 16 by default</li>
+ * <li>load.warmupSeconds: how long to call before measuring, 5 by default</li>
+ * <li>load.durationSeconds: how long to measure, 10 by default</li>
+ * <li>load.messages: the messages sent or asked for by the streaming RPCs and the size of the batches,
+ * 10 by default</li>
+ * </ul>
+ */
+final class LoadConfig {
+
+    enum Mode {
+        CLOSED,
+        OPEN
+    }
+
+    private final String target;
+    private final List<String> rpcs;
+    private final Mode mode;
+    private final int rate;
+    private final int channels;
+    private final int streams;
+    private final int warmupSeconds;
+    private final int durationSeconds;
+    private final int messages;
+
+    private LoadConfig(String target, List<String> rpcs, Mode mode, int rate, int channels, int streams,
+                       int warmupSeconds, int durationSeconds, int messages) {
+        this.target = target;
+        this.rpcs = rpcs;
+        this.mode = mode;
+        this.rate = rate;
+        this.channels = channels;
+        this.streams = streams;
+        this.warmupSeconds = warmupSeconds;
+        this.durationSeconds = durationSeconds;
+        this.messages = messages;
+    }
+
+    static LoadConfig fromSystemProperties() {
+        String rpc = System.getProperty("load.rpc", "Greet");
+        List<String> rpcs = "all".equalsIgnoreCase(rpc)
+                ? RpcScenarios.names()
+                : Collections.unmodifiableList(new ArrayList<>(Arrays.asList(rpc.split(","))));
+
+        LoadConfig config = new LoadConfig(
+                System.getProperty("load.target", ""),
+                rpcs,
+                Mode.valueOf(System.getProperty("load.mode", "closed").toUpperCase()),
+                Integer.getInteger("load.rate", 1000),
+                Integer.getInteger("load.channels", 1),
+                Integer.getInteger("load.streams", 16),
+                Integer.getInteger("load.warmupSeconds", 5),
+                Integer.getInteger("load.durationSeconds", 10),
+                Integer.getInteger("load.messages", 10));
+
+        if (config.rate < 1 || config.channels < 1 || config.streams < 1 || config.durationSeconds < 1
+                || config.messages < 1) {
+            throw new IllegalArgumentException("The rate, channels, streams, duration and messages must be positive");
+        }
+        if (config.warmupSeconds < 0) {
+            throw new IllegalArgumentException("The warm-up must not be negative");
+        }
+        return config;
+    }
+
+    /**
+     * @return the host:port of the server, empty to start the services in this JVM
+     */
+    String getTarget() {
+        return target;
+    }
+
+    List<String> getRpcs() {
+        return rpcs;
+    }
+
+    Mode getMode() {
+        return mode;
+    }
+
+    int getRate() {
+        return rate;
+    }
+
+    int getChannels() {
+        return channels;
+    }
+
+    int getStreams() {
+        return streams;
+    }
+
+    int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    int getMessages() {
+        return messages;
+    }
+
+    @Override
+    public String toString() {
+        return "target=" + (target.isEmpty() ? "embedded" : target)
+                + ", mode=" + mode + (mode == Mode.OPEN ? "(" + rate + " calls/s)" : "")
+                + ", channels=" + channels
+                + ", streams=" + streams
+                + ", warmupSeconds=" + warmupSeconds
+                + ", durationSeconds=" + durationSeconds
+                + ", messages=" + messages;
+    }
+}
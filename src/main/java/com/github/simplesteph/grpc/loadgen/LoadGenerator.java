@@ -0,0 +1,305 @@
+package com.github.simplesteph.grpc.loadgen;
+
+import com.github.simplesteph.grpc.blog.server.AsyncBlogRepository;
+import com.github.simplesteph.grpc.blog.server.BlogServiceImpl;
+import com.github.simplesteph.grpc.blog.server.EmbeddedBlogRepository;
+import com.github.simplesteph.grpc.blog.server.ExecutorBlogRepository;
+import com.github.simplesteph.grpc.calculator.server.CalculatorServiceImpl;
+import com.github.simplesteph.grpc.common.Logging;
+import com.github.simplesteph.grpc.greeting.server.GreetServiceImpl;
+import com.github.simplesteph.grpc.server.ServerConfig;
+import com.github.simplesteph.grpc.server.ServerLauncher;
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Loads the RPCs of the greeting, calculator and blog services through the async stubs, and reports the
+ * throughput and latency percentiles of each one. Unlike the demo clients, which make each call once,
+ * it tells how the servers behave under load.
+ * <p>
+ * It is set up with the load.* system properties of {@link LoadConfig}, for instance:
+ * -Dload.rpc=ReadBlog -Dload.mode=open -Dload.rate=5000 -Dload.channels=4.
+ * By default the services are started in this JVM and called over the loopback interface,
+ * so nothing else is needed; load.target=localhost:50051 loads a running GrpcServer instead, which should run
+ * with -Dgrpc.limit.mode=off, the default, unless its concurrency limit is what is measured: the calls it rejects
+ * are reported as RESOURCE_EXHAUSTED and left out of the latencies.
+ */
+public class LoadGenerator {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Logging.configure();
+        LoadConfig config = LoadConfig.fromSystemProperties();
+
+        EmbeddedServices embedded = null;
+        String target = config.getTarget();
+        if (target.isEmpty()) {
+            embedded = new EmbeddedServices();
+            target = "localhost:" + embedded.port;
+        }
+
+        // each channel has its own connection
+        List<ManagedChannel> channels = new ArrayList<>();
+        for (int i = 0; i < config.getChannels(); i++) {
+            channels.add(NettyChannelBuilder.forTarget(target)
+                    .usePlaintext()
+                    .build());
+        }
+
+        System.out.println("Load: " + config);
+        try {
+            for (String rpc : config.getRpcs()) {
+                Scenario scenario = RpcScenarios.create(rpc, channels.get(0), config.getMessages());
+                run(rpc.trim(), scenario, channels, config);
+            }
+        } finally {
+            for (ManagedChannel channel : channels) {
+                channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            }
+            if (embedded != null) {
+                embedded.stop();
+            }
+        }
+    }
+
+    private static void run(String rpc, Scenario scenario, List<ManagedChannel> channels, LoadConfig config)
+            throws InterruptedException {
+        // the connections, the JIT and the caches of both sides warm up
+        CallRecorder warmup = new CallRecorder(0);
+        if (config.getWarmupSeconds() > 0) {
+            System.out.println(rpc + ": warming up for " + config.getWarmupSeconds() + " s");
+            runPhase(scenario, channels, config, warmup, TimeUnit.SECONDS.toNanos(config.getWarmupSeconds()));
+        }
+
+        // a stream of the closed mode sends its next call when the last one ends, so the calls are
+        // usually a service time apart, the one measured during the warm-up
+        long expectedIntervalNanos = 0;
+        if (config.getMode() == LoadConfig.Mode.CLOSED) {
+            expectedIntervalNanos = warmup.serviceTime().valueAtPercentile(50);
+            if (expectedIntervalNanos == 0) {
+                System.out.println(rpc + ": no call succeeded during the warm-up, the closed mode response time is not corrected");
+            }
+        }
+
+        System.out.println(rpc + ": measuring for " + config.getDurationSeconds() + " s");
+        CallRecorder measured = new CallRecorder(expectedIntervalNanos);
+        long elapsedNanos = runPhase(scenario, channels, config, measured,
+                TimeUnit.SECONDS.toNanos(config.getDurationSeconds()));
+
+        System.out.println(rpc + ", " + (config.getMode() == LoadConfig.Mode.OPEN
+                ? "open loop at " + config.getRate() + " calls/s"
+                : "closed loop")
+                + ", " + channels.size() + " channels x " + config.getStreams() + " streams:");
+        System.out.print(measured.report((double) elapsedNanos / TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    /**
+     * Sends calls for this long, then waits for the calls sent to end.
+     *
+     * @return the time from the first call to the end of the last one
+     */
+    private static long runPhase(Scenario scenario, List<ManagedChannel> channels, LoadConfig config,
+                                 CallRecorder recorder, long durationNanos) throws InterruptedException {
+        long start = System.nanoTime();
+        if (config.getMode() == LoadConfig.Mode.OPEN) {
+            new OpenLoop(scenario, channels, config.getStreams(), recorder).run(config.getRate(), durationNanos);
+        } else {
+            long end = System.nanoTime() + durationNanos;
+            CountDownLatch stopped = new CountDownLatch(channels.size() * config.getStreams());
+            for (ManagedChannel channel : channels) {
+                for (int i = 0; i < config.getStreams(); i++) {
+                    new ClosedLoopStream(scenario, channel, recorder, end, stopped).next();
+                }
+            }
+            stopped.await();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Sends a call as soon as the last one ends, until the end of the phase.
+     */
+    private static final class ClosedLoopStream implements Consumer<Status> {
+
+        private final Scenario scenario;
+        private final ManagedChannel channel;
+        private final CallRecorder recorder;
+        private final long endNanos;
+        private final CountDownLatch stopped;
+
+        // one call at a time, the next one starts after this is read
+        private long startNanos;
+
+        ClosedLoopStream(Scenario scenario, ManagedChannel channel, CallRecorder recorder, long endNanos,
+                         CountDownLatch stopped) {
+            this.scenario = scenario;
+            this.channel = channel;
+            this.recorder = recorder;
+            this.endNanos = endNanos;
+            this.stopped = stopped;
+        }
+
+        void next() {
+            long now = System.nanoTime();
+            if (now - endNanos >= 0) {
+                stopped.countDown();
+                return;
+            }
+            startNanos = now;
+            scenario.call(channel, this);
+        }
+
+        @Override
+        public void accept(Status status) {
+            recorder.record(startNanos, startNanos, System.nanoTime(), status);
+            next();
+        }
+    }
+
+    /**
+     * Gives every call a start at a fixed rate, whatever the server does. Once streams calls are in flight
+     * on every channel, the next ones wait in a backlog, and their latency counts from the start they were given.
+     */
+    private static final class OpenLoop {
+
+        private final Scenario scenario;
+        private final List<ManagedChannel> channels;
+        private final int maxInFlight;
+        private final CallRecorder recorder;
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+        // the intended starts of the calls not sent yet, oldest first
+        private final ConcurrentLinkedQueue<Long> backlog = new ConcurrentLinkedQueue<>();
+        private final AtomicLong sent = new AtomicLong();
+
+        OpenLoop(Scenario scenario, List<ManagedChannel> channels, int streams, CallRecorder recorder) {
+            this.scenario = scenario;
+            this.channels = channels;
+            this.maxInFlight = channels.size() * streams;
+            this.recorder = recorder;
+        }
+
+        void run(int rate, long durationNanos) {
+            long intervalNanos = Math.max(1, TimeUnit.SECONDS.toNanos(1) / rate);
+            long start = System.nanoTime();
+            long end = start + durationNanos;
+            long next = start;
+            int maxBacklog = 0;
+            while (next - end < 0) {
+                long now = System.nanoTime();
+                // several calls at once when the rate is above what parking can time, or the pacer was late
+                while (next - now <= 0 && next - end < 0) {
+                    if (backlog.isEmpty() && tryAcquire()) {
+                        send(next);
+                    } else {
+                        backlog.add(next);
+                    }
+                    next += intervalNanos;
+                }
+                drainBacklog();
+                maxBacklog = Math.max(maxBacklog, backlog.size());
+                LockSupport.parkNanos(next - System.nanoTime());
+            }
+
+            // the calls of the backlog are sent as the calls in flight end
+            while (!backlog.isEmpty() || inFlight.get() > 0) {
+                drainBacklog();
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+            if (maxBacklog > 0) {
+                System.out.println("  up to " + maxBacklog + " calls waited for one of the " + maxInFlight
+                        + " streams, the server did not keep up with the rate");
+            }
+        }
+
+        private boolean tryAcquire() {
+            while (true) {
+                int current = inFlight.get();
+                if (current >= maxInFlight) {
+                    return false;
+                }
+                if (inFlight.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private void drainBacklog() {
+            while (!backlog.isEmpty() && tryAcquire()) {
+                Long intendedStart = backlog.poll();
+                if (intendedStart == null) {
+                    inFlight.decrementAndGet();
+                    return;
+                }
+                send(intendedStart);
+            }
+        }
+
+        private void send(long intendedStartNanos) {
+            ManagedChannel channel = channels.get((int) (sent.getAndIncrement() % channels.size()));
+            long startNanos = System.nanoTime();
+            scenario.call(channel, status -> {
+                recorder.record(intendedStartNanos, startNanos, System.nanoTime(), status);
+                // the stream goes to the oldest call of the backlog, if any
+                Long next = backlog.poll();
+                if (next != null) {
+                    send(next);
+                } else {
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    /**
+     * The three services on a free port of this JVM, with the blogs in a temporary file.
+     * GreetManyTimes sends its greetings back to back instead of one per second.
+     */
+    private static final class EmbeddedServices {
+
+        private final ScheduledExecutorService greetScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "greet-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final Path blogStorePath;
+        private final AsyncBlogRepository blogRepository;
+        private final ServerLauncher launcher;
+        private final int port;
+
+        EmbeddedServices() throws IOException {
+            blogStorePath = Files.createTempFile("blog-load", ".log");
+            blogRepository = new ExecutorBlogRepository(
+                    new EmbeddedBlogRepository(blogStorePath), ExecutorBlogRepository.DIRECT);
+            // any free port, no metrics and no concurrency limit
+            launcher = new ServerLauncher(ServerConfig.newBuilder(0).build())
+                    .addService(new GreetServiceImpl(greetScheduler, 0,
+                            GreetServiceImpl.DEFAULT_LONG_GREET_MAX_LENGTH, GreetServiceImpl.LongGreetOverflow.REJECT))
+                    .addService(new CalculatorServiceImpl())
+                    .addService(new BlogServiceImpl(blogRepository));
+            port = launcher.start().getPort();
+        }
+
+        void stop() throws IOException {
+            launcher.shutdown();
+            blogRepository.close();
+            greetScheduler.shutdownNow();
+            Files.deleteIfExists(blogStorePath);
+        }
+    }
+}
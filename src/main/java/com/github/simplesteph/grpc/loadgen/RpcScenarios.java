@@ -0,0 +1,410 @@
+package com.github.simplesteph.grpc.loadgen;
+
+import com.proto.blog.*;
+import com.proto.calculator.*;
+import com.proto.greet.*;
+import io.grpc.Channel;
+import io.grpc.Status;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * A {@link Scenario} for every RPC of greet.proto, calculator.proto and blog.proto, named like the RPC.
+ * <p>
+ * The streaming RPCs send or read load.messages messages per call. The blog RPCs work on blogs created
+ * before the load starts, except CreateBlog and CreateBlogs, and DeleteBlog, which creates the blog it deletes
+ * in the same call. A WatchBlogs call resumes a watch from an event of the setup, and ends once it got
+ * load.messages events.
+ */
+final class RpcScenarios {
+
+    // the blogs ReadBlog and UpdateBlog pick from
+    private static final int BLOG_COUNT = 1000;
+
+    // the work of greetWithDeadline takes 300 ms
+    private static final long GREET_WITH_DEADLINE_MILLIS = 1000;
+
+    private static final List<String> NAMES = Collections.unmodifiableList(Arrays.asList(
+            "Greet", "GreetManyTimes", "LongGreet", "GreetEveryone", "GreetWithDeadline",
+            "Sum", "BatchSum", "PrimeNumberDecomposition", "BatchPrimeDecomposition", "ComputeAverage",
+            "FindMaximum", "SquareRoot", "BatchSquareRoot",
+            "CreateBlog", "CreateBlogs", "ReadBlog", "UpdateBlog", "DeleteBlog", "ListBlog", "WatchBlogs"));
+
+    private static final Greeting GREETING = Greeting.newBuilder()
+            .setFirstName("Stephane")
+            .setLastName("Maarek")
+            .build();
+
+    private RpcScenarios() {
+    }
+
+    static List<String> names() {
+        return NAMES;
+    }
+
+    /**
+     * @param channel to set up the blogs the scenario needs
+     * @throws IllegalArgumentException for an unknown RPC
+     */
+    static Scenario create(String rpc, Channel channel, int messages) throws InterruptedException {
+        switch (rpc.trim().toLowerCase()) {
+            case "greet": {
+                GreetRequest request = GreetRequest.newBuilder().setGreeting(GREETING).build();
+                return (ch, done) -> GreetServiceGrpc.newStub(ch).greet(request, new Completion<>(done));
+            }
+            case "greetmanytimes": {
+                GreetManyTimesRequest request = GreetManyTimesRequest.newBuilder().setGreeting(GREETING).build();
+                return (ch, done) -> GreetServiceGrpc.newStub(ch).greetManyTimes(request, new Completion<>(done));
+            }
+            case "longgreet": {
+                LongGreetRequest request = LongGreetRequest.newBuilder().setGreeting(GREETING).build();
+                return (ch, done) -> {
+                    StreamObserver<LongGreetRequest> requests = GreetServiceGrpc.newStub(ch).longGreet(new Completion<>(done));
+                    for (int i = 0; i < messages; i++) {
+                        requests.onNext(request);
+                    }
+                    requests.onCompleted();
+                };
+            }
+            case "greeteveryone": {
+                GreetEveryoneRequest request = GreetEveryoneRequest.newBuilder().setGreeting(GREETING).build();
+                return (ch, done) -> {
+                    StreamObserver<GreetEveryoneRequest> requests = GreetServiceGrpc.newStub(ch).greetEveryone(new Completion<>(done));
+                    for (int i = 0; i < messages; i++) {
+                        requests.onNext(request);
+                    }
+                    requests.onCompleted();
+                };
+            }
+            case "greetwithdeadline": {
+                GreetWithDeadlineRequest request = GreetWithDeadlineRequest.newBuilder().setGreeting(GREETING).build();
+                return (ch, done) -> GreetServiceGrpc.newStub(ch)
+                        .withDeadlineAfter(GREET_WITH_DEADLINE_MILLIS, TimeUnit.MILLISECONDS)
+                        .greetWithDeadline(request, new Completion<>(done));
+            }
+
+            case "sum":
+                return (ch, done) -> CalculatorServiceGrpc.newStub(ch).sum(SumRequest.newBuilder()
+                                .setFirstNumber(ThreadLocalRandom.current().nextInt(1_000_000))
+                                .setSecondNumber(ThreadLocalRandom.current().nextInt(1_000_000))
+                                .build(),
+                        new Completion<>(done));
+            case "batchsum":
+                return (ch, done) -> {
+                    BatchSumRequest.Builder request = BatchSumRequest.newBuilder();
+                    for (int i = 0; i < messages; i++) {
+                        request.addFirstNumbers(ThreadLocalRandom.current().nextInt())
+                                .addSecondNumbers(ThreadLocalRandom.current().nextInt());
+                    }
+                    CalculatorServiceGrpc.newStub(ch).batchSum(request.build(), new Completion<>(done));
+                };
+            case "primenumberdecomposition":
+                // large numbers, so the factorizations are rarely cached
+                return (ch, done) -> CalculatorServiceGrpc.newStub(ch).primeNumberDecomposition(
+                        PrimeNumberDecompositionRequest.newBuilder().setNumber(randomLargeNumber()).build(),
+                        new Completion<>(done));
+            case "batchprimedecomposition":
+                return (ch, done) -> {
+                    BatchPrimeDecompositionRequest.Builder request = BatchPrimeDecompositionRequest.newBuilder();
+                    for (int i = 0; i < messages; i++) {
+                        request.addNumbers(randomLargeNumber());
+                    }
+                    CalculatorServiceGrpc.newStub(ch).batchPrimeDecomposition(request.build(), new Completion<>(done));
+                };
+            case "computeaverage":
+                return (ch, done) -> {
+                    StreamObserver<ComputeAverageRequest> requests = CalculatorServiceGrpc.newStub(ch).computeAverage(new Completion<>(done));
+                    for (int i = 0; i < messages; i++) {
+                        requests.onNext(ComputeAverageRequest.newBuilder()
+                                .setNumber(ThreadLocalRandom.current().nextInt(1_000_000))
+                                .build());
+                    }
+                    requests.onCompleted();
+                };
+            case "findmaximum":
+                return (ch, done) -> {
+                    StreamObserver<FindMaximumRequest> requests = CalculatorServiceGrpc.newStub(ch).findMaximum(new Completion<>(done));
+                    for (int i = 0; i < messages; i++) {
+                        requests.onNext(FindMaximumRequest.newBuilder()
+                                .setNumber(ThreadLocalRandom.current().nextInt())
+                                .build());
+                    }
+                    requests.onCompleted();
+                };
+            case "squareroot":
+                return (ch, done) -> CalculatorServiceGrpc.newStub(ch).squareRoot(SquareRootRequest.newBuilder()
+                                .setNumber(ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE))
+                                .build(),
+                        new Completion<>(done));
+            case "batchsquareroot":
+                return (ch, done) -> {
+                    BatchSquareRootRequest.Builder request = BatchSquareRootRequest.newBuilder();
+                    for (int i = 0; i < messages; i++) {
+                        request.addNumbers(ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE));
+                    }
+                    CalculatorServiceGrpc.newStub(ch).batchSquareRoot(request.build(), new Completion<>(done));
+                };
+
+            case "createblog":
+                return (ch, done) -> BlogServiceGrpc.newStub(ch).createBlog(
+                        CreateBlogRequest.newBuilder().setBlog(newBlog()).build(), new Completion<>(done));
+            case "createblogs":
+                return (ch, done) -> {
+                    StreamObserver<CreateBlogRequest> requests = BlogServiceGrpc.newStub(ch).createBlogs(new Completion<>(done));
+                    for (int i = 0; i < messages; i++) {
+                        requests.onNext(CreateBlogRequest.newBuilder().setBlog(newBlog()).build());
+                    }
+                    requests.onCompleted();
+                };
+            case "readblog": {
+                List<String> blogIds = createBlogs(channel, BLOG_COUNT);
+                return (ch, done) -> BlogServiceGrpc.newStub(ch).readBlog(ReadBlogRequest.newBuilder()
+                                .setBlogId(blogIds.get(ThreadLocalRandom.current().nextInt(blogIds.size())))
+                                .build(),
+                        new Completion<>(done));
+            }
+            case "updateblog": {
+                List<String> blogIds = createBlogs(channel, BLOG_COUNT);
+                // no version, so concurrent updates of a blog do not conflict
+                return (ch, done) -> BlogServiceGrpc.newStub(ch).updateBlog(UpdateBlogRequest.newBuilder()
+                                .setBlog(newBlog().toBuilder()
+                                        .setId(blogIds.get(ThreadLocalRandom.current().nextInt(blogIds.size()))))
+                                .build(),
+                        new Completion<>(done));
+            }
+            case "deleteblog":
+                return (ch, done) -> {
+                    BlogServiceGrpc.BlogServiceStub stub = BlogServiceGrpc.newStub(ch);
+                    stub.createBlog(CreateBlogRequest.newBuilder().setBlog(newBlog()).build(),
+                            new Completion<CreateBlogResponse>(done) {
+                                private String blogId;
+
+                                @Override
+                                public void onNext(CreateBlogResponse response) {
+                                    blogId = response.getBlog().getId();
+                                }
+
+                                @Override
+                                public void onCompleted() {
+                                    stub.deleteBlog(DeleteBlogRequest.newBuilder().setBlogId(blogId).build(),
+                                            new Completion<>(done));
+                                }
+                            });
+                };
+            case "listblog": {
+                createBlogs(channel, BLOG_COUNT);
+                ListBlogRequest request = ListBlogRequest.newBuilder().setPageSize(messages).build();
+                return (ch, done) -> BlogServiceGrpc.newStub(ch).listBlog(request, new Completion<>(done));
+            }
+            case "watchblogs": {
+                WatchBlogsRequest request = WatchBlogsRequest.newBuilder()
+                        .setResumeToken(watchHistory(channel, messages))
+                        .build();
+                return (ch, done) -> BlogServiceGrpc.newStub(ch).watchBlogs(request, new EventsObserver(messages, done));
+            }
+
+            default:
+                throw new IllegalArgumentException("Unknown RPC: " + rpc + ", the RPCs are " + NAMES);
+        }
+    }
+
+    private static long randomLargeNumber() {
+        return ThreadLocalRandom.current().nextLong(1L << 40, Long.MAX_VALUE);
+    }
+
+    private static Blog newBlog() {
+        int number = ThreadLocalRandom.current().nextInt(1_000_000);
+        return Blog.newBuilder()
+                .setAuthorId("author-" + number % 10)
+                .setTitle("Blog number " + number)
+                .setContent("The content of the blog number " + number)
+                .build();
+    }
+
+    /**
+     * @return the ids of the blogs created
+     */
+    private static List<String> createBlogs(Channel channel, int count) throws InterruptedException {
+        // a response per batch of blogs written
+        List<String> blogIds = Collections.synchronizedList(new ArrayList<>(count));
+        CompletableFuture<Void> created = new CompletableFuture<>();
+        StreamObserver<CreateBlogRequest> requests = BlogServiceGrpc.newStub(channel).createBlogs(
+                new StreamObserver<CreateBlogsResponse>() {
+                    @Override
+                    public void onNext(CreateBlogsResponse value) {
+                        for (CreateBlogResult result : value.getResultsList()) {
+                            if (result.hasBlog()) {
+                                blogIds.add(result.getBlog().getId());
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        created.completeExceptionally(t);
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        created.complete(null);
+                    }
+                });
+        for (int i = 0; i < count; i++) {
+            requests.onNext(CreateBlogRequest.newBuilder().setBlog(newBlog()).build());
+        }
+        requests.onCompleted();
+
+        await(created);
+        if (blogIds.isEmpty()) {
+            throw new IllegalStateException("No blog could be created");
+        }
+        return blogIds;
+    }
+
+    /**
+     * Creates blogs while a watch is open.
+     *
+     * @return the resume token of an event followed by the events of at least this many blogs created
+     */
+    private static String watchHistory(Channel channel, int events) throws InterruptedException {
+        CompletableFuture<String> firstEvent = new CompletableFuture<>();
+        ClientCallStreamObserver<?>[] watch = new ClientCallStreamObserver<?>[1];
+        BlogServiceGrpc.newStub(channel).watchBlogs(WatchBlogsRequest.getDefaultInstance(),
+                new ClientResponseObserver<WatchBlogsRequest, BlogEvent>() {
+                    @Override
+                    public void beforeStart(ClientCallStreamObserver<WatchBlogsRequest> requestStream) {
+                        watch[0] = requestStream;
+                    }
+
+                    @Override
+                    public void onNext(BlogEvent event) {
+                        firstEvent.complete(event.getResumeToken());
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        firstEvent.completeExceptionally(t);
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        firstEvent.completeExceptionally(new IllegalStateException("The watch ended"));
+                    }
+                });
+
+        // the watch only sees the changes made once the server started it, which the client can't know
+        BlogServiceGrpc.BlogServiceBlockingStub blockingStub = BlogServiceGrpc.newBlockingStub(channel);
+        String resumeToken = null;
+        for (int attempt = 0; attempt < 50 && resumeToken == null; attempt++) {
+            blockingStub.createBlog(CreateBlogRequest.newBuilder().setBlog(newBlog()).build());
+            try {
+                resumeToken = firstEvent.get(100, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // try again
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Could not watch the blogs", e.getCause());
+            }
+        }
+        watch[0].cancel("Setup done", null);
+        if (resumeToken == null) {
+            throw new IllegalStateException("The watch got no event");
+        }
+
+        for (int i = 0; i < events; i++) {
+            blockingStub.createBlog(CreateBlogRequest.newBuilder().setBlog(newBlog()).build());
+        }
+        return resumeToken;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("The setup failed: " + Status.fromThrowable(e.getCause()), e.getCause());
+        }
+    }
+
+    /**
+     * Reports the end of a call, whatever it answers.
+     */
+    private static class Completion<T> implements StreamObserver<T> {
+
+        private final Consumer<Status> done;
+
+        Completion(Consumer<Status> done) {
+            this.done = done;
+        }
+
+        @Override
+        public void onNext(T value) {
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            done.accept(Status.fromThrowable(t));
+        }
+
+        @Override
+        public void onCompleted() {
+            done.accept(Status.OK);
+        }
+    }
+
+    /**
+     * Ends a watch once it got enough events.
+     */
+    private static class EventsObserver implements ClientResponseObserver<WatchBlogsRequest, BlogEvent> {
+
+        private final int events;
+        private final Consumer<Status> done;
+        private final AtomicBoolean ended = new AtomicBoolean();
+
+        private ClientCallStreamObserver<WatchBlogsRequest> call;
+        private int received = 0;
+
+        EventsObserver(int events, Consumer<Status> done) {
+            this.events = events;
+            this.done = done;
+        }
+
+        @Override
+        public void beforeStart(ClientCallStreamObserver<WatchBlogsRequest> requestStream) {
+            this.call = requestStream;
+        }
+
+        @Override
+        public void onNext(BlogEvent event) {
+            if (++received == events && ended.compareAndSet(false, true)) {
+                done.accept(Status.OK);
+                call.cancel("Got the events", null);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            if (ended.compareAndSet(false, true)) {
+                done.accept(Status.fromThrowable(t));
+            }
+        }
+
+        @Override
+        public void onCompleted() {
+            if (ended.compareAndSet(false, true)) {
+                done.accept(Status.UNKNOWN.withDescription("The watch ended after " + received + " events"));
+            }
+        }
+    }
+}
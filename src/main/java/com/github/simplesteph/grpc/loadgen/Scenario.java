@@ -0,0 +1,19 @@
+package com.github.simplesteph.grpc.loadgen;
+
+import io.grpc.Channel;
+import io.grpc.Status;
+
+import java.util.function.Consumer;
+
+/**
+ * One call of an RPC, what the {@link LoadGenerator} repeats and measures.
+ */
+interface Scenario {
+
+    /**
+     * Starts a call on the channel, without waiting for it.
+     *
+     * @param done called once when the call ends, with its status
+     */
+    void call(Channel channel, Consumer<Status> done);
+}
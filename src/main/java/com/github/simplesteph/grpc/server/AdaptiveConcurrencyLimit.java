@@ -0,0 +1,153 @@
+package com.github.simplesteph.grpc.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * How many calls may run at once, adapted from their latency like the gradient limit of Netflix concurrency-limits.
+ * <p>
+ * The latency of the calls of each window of at least 100 ms is compared with its long term average:
+ * while it stays close, the limit grows by about its square root, as calls may be waiting in a queue
+ * without the latency showing it yet. When it rises, the service is queueing work, and the limit shrinks
+ * in proportion, by half at most per window. The long term average slowly follows the latency,
+ * so a lasting change of latency becomes the new normal.
+ * <p>
+ * Calls are admitted with a compare-and-set on the number of calls in flight, without locks.
+ * The window is closed by the one thread that wins a compare-and-set on its start.
+ */
+public final class AdaptiveConcurrencyLimit {
+
+    private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int MIN_WINDOW_SAMPLES = 10;
+    // the latency may be this many times its long term average before the limit shrinks
+    private static final double TOLERANCE = 1.5;
+    // how much of the new limit is taken at each window
+    private static final double SMOOTHING = 0.2;
+    // the weight of a window in the long term latency
+    private static final double LONG_TERM_WEIGHT = 0.05;
+
+    private final int minLimit;
+    private final int maxLimit;
+    // System.nanoTime, but for tests
+    private final LongSupplier nanoClock;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int limit;
+
+    // the samples of the current window
+    private final LongAdder windowNanos = new LongAdder();
+    private final LongAdder windowCount = new LongAdder();
+    private final AtomicInteger windowMaxInFlight = new AtomicInteger();
+    private final AtomicLong windowStart;
+
+    // only written by the thread closing a window
+    private volatile double estimatedLimit;
+    private volatile double longTermNanos = 0;
+
+    public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit) {
+        this(initialLimit, minLimit, maxLimit, System::nanoTime);
+    }
+
+    AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, LongSupplier nanoClock) {
+        if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("The limits must be 1 <= min <= initial <= max");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+        this.estimatedLimit = initialLimit;
+        this.nanoClock = nanoClock;
+        this.windowStart = new AtomicLong(nanoClock.getAsLong());
+    }
+
+    /**
+     * @return the number of calls in flight before this one, to pass to {@link #release},
+     * or -1 if the limit is reached and the call must not run
+     */
+    public int tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return -1;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return current;
+            }
+        }
+    }
+
+    /**
+     * Ends a call admitted by {@link #tryAcquire}, and learns from its latency.
+     */
+    public void release(long latencyNanos, int inFlightAtStart) {
+        inFlight.decrementAndGet();
+
+        windowNanos.add(latencyNanos);
+        windowCount.increment();
+        // the calls in flight, this one included
+        int load = inFlightAtStart + 1;
+        int max;
+        while (load > (max = windowMaxInFlight.get()) && !windowMaxInFlight.compareAndSet(max, load)) {
+            // retry
+        }
+
+        long start = windowStart.get();
+        long now = nanoClock.getAsLong();
+        if (now - start >= WINDOW_NANOS && windowCount.sum() >= MIN_WINDOW_SAMPLES
+                && windowStart.compareAndSet(start, now)) {
+            long count = windowCount.sumThenReset();
+            long nanos = windowNanos.sumThenReset();
+            int maxInFlight = windowMaxInFlight.getAndSet(0);
+            if (count > 0) {
+                update((double) nanos / count, maxInFlight);
+            }
+        }
+    }
+
+    /**
+     * Ends a call admitted by {@link #tryAcquire} that says nothing about the latency, like a call never started.
+     */
+    public void releaseWithoutSample() {
+        inFlight.decrementAndGet();
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    private void update(double shortTermNanos, int maxInFlight) {
+        double longTerm = longTermNanos;
+        if (longTerm == 0) {
+            longTerm = shortTermNanos;
+        } else {
+            longTerm = longTerm * (1 - LONG_TERM_WEIGHT) + shortTermNanos * LONG_TERM_WEIGHT;
+            if (longTerm / shortTermNanos > 2) {
+                // the latency dropped a lot, follow it faster or the limit would grow for a long time
+                longTerm *= 0.95;
+            }
+        }
+        longTermNanos = longTerm;
+
+        double estimated = estimatedLimit;
+        if (maxInFlight < estimated / 2) {
+            // the calls did not come close to the limit, their latency says nothing about it
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longTerm / shortTermNanos));
+        double queueSize = Math.sqrt(estimated);
+        double target = estimated * gradient + queueSize;
+        estimated = estimated * (1 - SMOOTHING) + target * SMOOTHING;
+        estimated = Math.max(minLimit, Math.min(maxLimit, estimated));
+
+        estimatedLimit = estimated;
+        limit = (int) estimated;
+    }
+}
@@ -0,0 +1,364 @@
+package com.github.simplesteph.grpc.server;
+
+import io.grpc.Context;
+import io.grpc.Deadline;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the calls each method runs at once with an {@link AdaptiveConcurrencyLimit}, so a slow
+ * dependency, like MongoDB for the blogs, cannot pile up calls until the whole server is slow.
+ * <p>
+ * A call over the limit is either rejected with RESOURCE_EXHAUSTED right away, so the client can back off
+ * or try another server, or waits in a bounded queue for a call to complete. It waits at most maxWait,
+ * and never past its deadline. A waiting call holds no thread.
+ * <p>
+ * Streaming calls, like ListBlog or WatchBlogs, hold their place in the limit until they end, but their
+ * latency is not sampled: how long a stream lasts, like a WatchBlogs that runs for hours, says nothing
+ * about how loaded the server is.
+ */
+public class ConcurrencyLimitInterceptor implements ServerInterceptor, ServerMetrics.Source {
+
+    public enum Mode {
+        REJECT,
+        QUEUE
+    }
+
+    // the limits of each method start here, and adapt
+    private static final int INITIAL_LIMIT = 20;
+    private static final int MIN_LIMIT = 4;
+    private static final int MAX_LIMIT = 1000;
+
+    private static final ServerCall.Listener<Object> NOOP_LISTENER = new ServerCall.Listener<Object>() {
+    };
+
+    private final Mode mode;
+    private final int maxQueued;
+    private final long maxWaitNanos;
+
+    private final ConcurrentHashMap<String, MethodLimit> limits = new ConcurrentHashMap<>();
+
+    // times out the calls waiting in the queues
+    private final ScheduledExecutorService timeoutScheduler;
+
+    /**
+     * @param maxQueued the calls of a method that may wait in QUEUE mode, past it they are rejected
+     * @param maxWait   how long a call may wait in QUEUE mode
+     */
+    public ConcurrencyLimitInterceptor(Mode mode, int maxQueued, long maxWait, TimeUnit unit) {
+        if (maxQueued < 0 || maxWait < 0) {
+            throw new IllegalArgumentException("The queue size and the wait must not be negative");
+        }
+        this.mode = mode;
+        this.maxQueued = maxQueued;
+        this.maxWaitNanos = unit.toNanos(maxWait);
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "concurrency-limit-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // the timeouts of the calls that started are cancelled, they leave the queue right away
+        scheduler.setRemoveOnCancelPolicy(true);
+        this.timeoutScheduler = scheduler;
+    }
+
+    /**
+     * @return the limit of this method, null before its first call
+     */
+    public AdaptiveConcurrencyLimit limitOf(String fullMethodName) {
+        MethodLimit methodLimit = limits.get(fullMethodName);
+        return methodLimit == null ? null : methodLimit.limit;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        MethodDescriptor<ReqT, RespT> method = call.getMethodDescriptor();
+        MethodLimit methodLimit = limits.get(method.getFullMethodName());
+        if (methodLimit == null) {
+            methodLimit = limits.computeIfAbsent(method.getFullMethodName(), MethodLimit::new);
+        }
+
+        int inFlightAtStart = methodLimit.limit.tryAcquire();
+        if (inFlightAtStart >= 0) {
+            LimitedListener<ReqT, RespT> listener = new LimitedListener<>(methodLimit, call, headers, next);
+            listener.start(inFlightAtStart);
+            return listener;
+        }
+
+        if (mode == Mode.QUEUE && methodLimit.tryEnqueue()) {
+            LimitedListener<ReqT, RespT> listener = new LimitedListener<>(methodLimit, call, headers, next);
+            listener.enqueue();
+            return listener;
+        }
+
+        methodLimit.rejected.increment();
+        call.close(Status.RESOURCE_EXHAUSTED
+                .withDescription("Too many calls in flight")
+                .augmentDescription("The limit of " + method.getFullMethodName() + " is " + methodLimit.limit.getLimit()),
+                new Metadata());
+        @SuppressWarnings("unchecked")
+        ServerCall.Listener<ReqT> noop = (ServerCall.Listener<ReqT>) NOOP_LISTENER;
+        return noop;
+    }
+
+    @Override
+    public void writePrometheus(StringBuilder out) {
+        // sorted, so successive scrapes list the methods in the same order
+        Map<String, MethodLimit> sorted = new TreeMap<>(limits);
+
+        ServerMetrics.header(out, "grpc_server_concurrency_limit", "gauge", "Calls a method may run at once.");
+        for (MethodLimit methodLimit : sorted.values()) {
+            ServerMetrics.sample(out, "grpc_server_concurrency_limit", methodLimit.labels, methodLimit.limit.getLimit());
+        }
+
+        ServerMetrics.header(out, "grpc_server_concurrency_in_flight", "gauge", "Calls admitted by the limit of their method and not completed yet.");
+        for (MethodLimit methodLimit : sorted.values()) {
+            ServerMetrics.sample(out, "grpc_server_concurrency_in_flight", methodLimit.labels, methodLimit.limit.getInFlight());
+        }
+
+        ServerMetrics.header(out, "grpc_server_concurrency_queued", "gauge", "Calls waiting for the limit of their method.");
+        for (MethodLimit methodLimit : sorted.values()) {
+            ServerMetrics.sample(out, "grpc_server_concurrency_queued", methodLimit.labels, methodLimit.queuedCount.get());
+        }
+
+        ServerMetrics.header(out, "grpc_server_concurrency_rejected_total", "counter", "Calls rejected by the limit of their method, or timed out waiting for it.");
+        for (MethodLimit methodLimit : sorted.values()) {
+            ServerMetrics.sample(out, "grpc_server_concurrency_rejected_total", methodLimit.labels, methodLimit.rejected.sum());
+        }
+    }
+
+    private final class MethodLimit {
+
+        final String labels;
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(INITIAL_LIMIT, MIN_LIMIT, MAX_LIMIT);
+        final ConcurrentLinkedQueue<LimitedListener<?, ?>> queued = new ConcurrentLinkedQueue<>();
+        // the calls still waiting in the queue, it may also hold calls that timed out or were cancelled
+        final AtomicInteger queuedCount = new AtomicInteger();
+        final LongAdder rejected = new LongAdder();
+
+        MethodLimit(String fullMethodName) {
+            this.labels = ServerMetrics.labels(fullMethodName);
+        }
+
+        boolean tryEnqueue() {
+            while (true) {
+                int count = queuedCount.get();
+                if (count >= maxQueued) {
+                    return false;
+                }
+                if (queuedCount.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        // starts the calls waiting, as long as the limit lets them
+        void drain() {
+            while (queued.peek() != null) {
+                int inFlightAtStart = limit.tryAcquire();
+                if (inFlightAtStart < 0) {
+                    return;
+                }
+                LimitedListener<?, ?> next = queued.poll();
+                if (next == null || !next.startQueued(inFlightAtStart)) {
+                    // gone meanwhile, or timed out or cancelled
+                    limit.releaseWithoutSample();
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the call once it is admitted, and ends it in its limit. A queued call is started by the thread
+     * of the call that made room, while its own callbacks may already come: they wait for it to start.
+     */
+    private final class LimitedListener<ReqT, RespT> extends ServerCall.Listener<ReqT> {
+
+        private static final int QUEUED = 0;
+        private static final int STARTED = 1;
+        private static final int ABANDONED = 2;
+
+        private final MethodLimit methodLimit;
+        private final ServerCall<ReqT, RespT> call;
+        private final Metadata headers;
+        private final ServerCallHandler<ReqT, RespT> next;
+        private final Context context = Context.current();
+        private final AtomicInteger state = new AtomicInteger(QUEUED);
+        // only the latency of unary calls is a sample of the limit
+        private final boolean sampled;
+
+        // guarded by this, set once the call starts
+        private ServerCall.Listener<ReqT> delegate;
+        // guarded by this, a stream may be half closed while queued, before it asked for any message
+        private boolean halfClosedWhileQueued = false;
+        private long startNanos;
+        private int inFlightAtStart;
+        // set before the call is queued
+        private volatile ScheduledFuture<?> timeout;
+
+        LimitedListener(MethodLimit methodLimit, ServerCall<ReqT, RespT> call, Metadata headers,
+                        ServerCallHandler<ReqT, RespT> next) {
+            this.methodLimit = methodLimit;
+            this.call = call;
+            this.headers = headers;
+            this.next = next;
+            this.sampled = call.getMethodDescriptor().getType() == MethodDescriptor.MethodType.UNARY;
+        }
+
+        synchronized void start(int inFlightAtStart) {
+            state.set(STARTED);
+            this.inFlightAtStart = inFlightAtStart;
+            this.startNanos = System.nanoTime();
+            try {
+                delegate = next.startCall(call, headers);
+            } catch (RuntimeException e) {
+                methodLimit.limit.releaseWithoutSample();
+                throw e;
+            }
+        }
+
+        void enqueue() {
+            // waits at most maxWait, and not past the deadline of the call
+            long waitNanos = maxWaitNanos;
+            Status timeoutStatus = Status.RESOURCE_EXHAUSTED
+                    .withDescription("Too many calls in flight")
+                    .augmentDescription("Waited " + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos) + " ms for the limit of "
+                            + call.getMethodDescriptor().getFullMethodName());
+            Deadline deadline = context.getDeadline();
+            if (deadline != null && deadline.timeRemaining(TimeUnit.NANOSECONDS) < waitNanos) {
+                waitNanos = Math.max(0, deadline.timeRemaining(TimeUnit.NANOSECONDS));
+                timeoutStatus = Status.DEADLINE_EXCEEDED
+                        .withDescription("The deadline passed while waiting for the limit of "
+                                + call.getMethodDescriptor().getFullMethodName());
+            }
+
+            Status status = timeoutStatus;
+            timeout = timeoutScheduler.schedule(() -> abandon(status), waitNanos, TimeUnit.NANOSECONDS);
+            methodLimit.queued.add(this);
+            // a call may have completed between the refusal of the limit and now
+            methodLimit.drain();
+        }
+
+        /**
+         * @return false if the call left the queue meanwhile
+         */
+        synchronized boolean startQueued(int inFlightAtStart) {
+            if (!state.compareAndSet(QUEUED, STARTED)) {
+                return false;
+            }
+            methodLimit.queuedCount.decrementAndGet();
+            timeout.cancel(false);
+            this.inFlightAtStart = inFlightAtStart;
+            this.startNanos = System.nanoTime();
+            // in the context of this call, not the one of the call that made room
+            Context previous = context.attach();
+            try {
+                delegate = next.startCall(call, headers);
+                if (halfClosedWhileQueued) {
+                    delegate.onHalfClose();
+                }
+            } catch (RuntimeException e) {
+                methodLimit.limit.releaseWithoutSample();
+                call.close(Status.fromThrowable(e), new Metadata());
+            } finally {
+                context.detach(previous);
+            }
+            return true;
+        }
+
+        /**
+         * Takes the call out of the queue, and closes it with this status unless it is null.
+         */
+        private void abandon(Status status) {
+            if (state.compareAndSet(QUEUED, ABANDONED)) {
+                methodLimit.queuedCount.decrementAndGet();
+                methodLimit.queued.remove(this);
+                timeout.cancel(false);
+                if (status != null) {
+                    methodLimit.rejected.increment();
+                    call.close(status, new Metadata());
+                }
+            }
+        }
+
+        // waits for a queued call being started, null if the call never started
+        private synchronized ServerCall.Listener<ReqT> delegate() {
+            return delegate;
+        }
+
+        @Override
+        public void onMessage(ReqT message) {
+            ServerCall.Listener<ReqT> delegate = delegate();
+            if (delegate != null) {
+                delegate.onMessage(message);
+            }
+        }
+
+        @Override
+        public void onHalfClose() {
+            ServerCall.Listener<ReqT> delegate;
+            synchronized (this) {
+                delegate = this.delegate;
+                if (delegate == null) {
+                    // passed on once the call starts
+                    halfClosedWhileQueued = true;
+                    return;
+                }
+            }
+            delegate.onHalfClose();
+        }
+
+        @Override
+        public void onReady() {
+            ServerCall.Listener<ReqT> delegate = delegate();
+            if (delegate != null) {
+                delegate.onReady();
+            }
+        }
+
+        @Override
+        public void onCancel() {
+            // the client is gone while the call waits, no one to answer
+            abandon(null);
+            ServerCall.Listener<ReqT> delegate = delegate();
+            if (delegate != null) {
+                end();
+                delegate.onCancel();
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            ServerCall.Listener<ReqT> delegate = delegate();
+            if (delegate != null) {
+                end();
+                delegate.onComplete();
+            }
+        }
+
+        private void end() {
+            if (sampled) {
+                methodLimit.limit.release(System.nanoTime() - startNanos, inFlightAtStart);
+            } else {
+                methodLimit.limit.releaseWithoutSample();
+            }
+            methodLimit.drain();
+        }
+    }
+}
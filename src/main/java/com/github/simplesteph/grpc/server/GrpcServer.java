@@ -0,0 +1,69 @@
+package com.github.simplesteph.grpc.server;
+
+import com.github.simplesteph.grpc.common.Logging;
+import com.github.simplesteph.grpc.blog.server.AsyncBlogRepository;
+import com.github.simplesteph.grpc.blog.server.BlogCache;
+import com.github.simplesteph.grpc.blog.server.BlogServer;
+import com.github.simplesteph.grpc.blog.server.BlogServiceImpl;
+import com.github.simplesteph.grpc.calculator.server.CalculatorServiceImpl;
+import com.github.simplesteph.grpc.calculator.server.FactorizationCache;
+import com.github.simplesteph.grpc.greeting.server.GreetServiceImpl;
+import com.github.simplesteph.grpc.greeting.server.GreetingServer;
+import io.grpc.protobuf.services.ProtoReflectionService;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Serves the greeting, calculator and blog services together on one port, 50051 by default.
+ * <p>
+ * The server is tuned with the grpc.* system properties of {@link ServerConfig},
+ * and each service with its own properties, like blog.mode and blog.store.
+ */
+public class GrpcServer {
+
+    private static final Logger logger = Logger.getLogger(GrpcServer.class.getName());
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        // -Dlog.level=debug logs every call
+        Logging.configure();
+        GreetServiceImpl greetService = GreetingServer.createGreetService();
+
+        // up to 100000 factorizations are kept in memory
+        FactorizationCache factorizationCache = new FactorizationCache(100_000);
+        CalculatorServiceImpl calculatorService = new CalculatorServiceImpl(factorizationCache);
+
+        AsyncBlogRepository blogRepository = BlogServer.createAsyncRepository();
+        // up to 10000 blogs are kept in memory for one minute
+        BlogCache blogCache = new BlogCache(10_000, 1, TimeUnit.MINUTES);
+        BlogServiceImpl blogService = new BlogServiceImpl(blogRepository, blogCache);
+
+        ServerLauncher launcher = new ServerLauncher(ServerConfig.fromSystemProperties(50051))
+                .addService(greetService)
+                .addService(calculatorService)
+                .addService(blogService)
+                .addService(ProtoReflectionService.newInstance()) // reflection
+                .addMetricsSource(factorizationCache)
+                .addMetricsSource(blogCache)
+                .addMetricsSource(calculatorService)
+                .addMetricsSource(blogService);
+
+        launcher.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            logger.info("Received Shutdown Request");
+            launcher.shutdown();
+            blogRepository.close();
+            logger.info("Factorization cache hits: " + factorizationCache.hitCount()
+                    + ", misses: " + factorizationCache.missCount()
+                    + ", evictions: " + factorizationCache.evictionCount());
+            logger.info("Blog cache hits: " + blogCache.hitCount()
+                    + ", misses: " + blogCache.missCount()
+                    + ", evictions: " + blogCache.evictionCount());
+            logger.info("Successfully stopped the server");
+        }));
+
+        launcher.awaitTermination();
+    }
+}
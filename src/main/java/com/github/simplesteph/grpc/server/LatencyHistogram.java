@@ -0,0 +1,123 @@
+package com.github.simplesteph.grpc.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in nanoseconds that many threads record into without locks or allocations.
+ * <p>
+ * The buckets are log-linear, like the ones of HdrHistogram: the durations below 32 ns have a bucket each,
+ * then every power of two is split in 16 buckets, so a duration is known within 1/16 of its value.
+ * Durations above about 18 minutes are counted as 18 minutes. Reads while threads record are not atomic,
+ * a snapshot may miss the latest durations, which is fine for monitoring.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT / 2;
+    private static final long MAX_NANOS = (1L << 40) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(bucketIndex(MAX_NANOS) + 1);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_NANOS);
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.increment();
+        totalNanos.add(value);
+    }
+
+    /**
+     * Records a duration measured by a client that waits for each call before starting the next one, corrected
+     * for coordinated omission like HdrHistogram does: a call slower than the expected interval between two calls
+     * held back the calls that would have started meanwhile, they are recorded with the durations they would have seen.
+     *
+     * @param expectedIntervalNanos the usual time between two calls of the client, 0 for no correction
+     */
+    public void recordWithExpectedInterval(long nanos, long expectedIntervalNanos) {
+        record(nanos);
+        if (expectedIntervalNanos <= 0) {
+            return;
+        }
+        for (long missed = nanos - expectedIntervalNanos; missed >= expectedIntervalNanos; missed -= expectedIntervalNanos) {
+            record(missed);
+        }
+    }
+
+    public long count() {
+        return totalCount.sum();
+    }
+
+    public long sumNanos() {
+        return totalNanos.sum();
+    }
+
+    /**
+     * @return the number of durations up to this one, give or take the durations of its bucket
+     */
+    public long countAtOrBelow(long nanos) {
+        long count = 0;
+        for (int i = 0; i < counts.length() && upperBound(i) <= nanos + 1; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the duration at this percentile, the middle of its bucket, 0 when nothing was recorded
+     */
+    public long valueAtPercentile(double percentile) {
+        long[] snapshot = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return (lowerBound(i) + upperBound(i) - 1) / 2;
+            }
+        }
+        return MAX_NANOS;
+    }
+
+    public double valueAtPercentile(double percentile, TimeUnit unit) {
+        return (double) valueAtPercentile(percentile) / unit.toNanos(1);
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS + 1;
+        int mantissa = (int) (value >>> shift);
+        return SUB_BUCKET_COUNT + (shift - 1) * HALF_SUB_BUCKET_COUNT + (mantissa - HALF_SUB_BUCKET_COUNT);
+    }
+
+    private static long lowerBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int offset = index - SUB_BUCKET_COUNT;
+        int shift = offset / HALF_SUB_BUCKET_COUNT + 1;
+        long mantissa = offset % HALF_SUB_BUCKET_COUNT + HALF_SUB_BUCKET_COUNT;
+        return mantissa << shift;
+    }
+
+    // exclusive
+    private static long upperBound(int index) {
+        return lowerBound(index + 1);
+    }
+}
@@ -0,0 +1,379 @@
+package com.github.simplesteph.grpc.server;
+
+import java.io.File;
+
+/**
+ * How a {@link ServerLauncher} sets up its gRPC server: threading, transport and HTTP/2 limits.
+ * <p>
+ * {@link #fromSystemProperties(int)} reads every setting from a grpc.* system property, so a server is tuned
+ * from the command line, the defaults are the ones of gRPC itself:
+ * <ul>
+ * <li>grpc.port</li>
+ * <li>grpc.executor: "default" runs the calls on a cached thread pool, "fixed" on a pool of grpc.executor.threads
+ * threads, by default one per core, "direct" on the Netty event loops, only for services that never block</li>
+ * <li>grpc.transport: "nio", "epoll" for the native Linux transport, or "auto" (default) for epoll when available</li>
+ * <li>grpc.bossThreads and grpc.workerThreads: the sizes of the event loop groups that accept the connections
+ * and serve them, 0 for the Netty default</li>
+ * <li>grpc.maxConcurrentCallsPerConnection, 0 for no limit</li>
+ * <li>grpc.flowControlWindow: the initial HTTP/2 flow control window of the streams, in bytes</li>
+ * <li>grpc.maxInboundMessageSize, in bytes</li>
+ * <li>grpc.keepAliveTimeMillis and grpc.keepAliveTimeoutMillis: how often the server pings idle connections
+ * and how long it waits for the answer, 0 to keep the default</li>
+ * <li>grpc.permitKeepAliveTimeMillis and grpc.permitKeepAliveWithoutCalls: how often clients may ping the server</li>
+ * <li>grpc.tls.certChain and grpc.tls.privateKey: serve TLS with these files, like the ones in the ssl directory</li>
+ * <li>grpc.metrics.port: the local port of the Prometheus metrics, by default the gRPC port + 10000, -1 for none</li>
+ * <li>grpc.limit.mode: how the calls over the adaptive limit of their method are handled, "off" (default)
+ * has no limit, "reject" fails them with RESOURCE_EXHAUSTED, "queue" lets up to grpc.limit.maxQueued of them
+ * wait at most grpc.limit.maxWaitMillis. The limit starts low and rejects bursts until it has adapted,
+ * the benchmarks need it off</li>
+ * </ul>
+ */
+public final class ServerConfig {
+
+    public enum ExecutorType {
+        DEFAULT,
+        FIXED,
+        DIRECT
+    }
+
+    public enum Transport {
+        AUTO,
+        NIO,
+        EPOLL
+    }
+
+    public enum ConcurrencyLimitMode {
+        OFF,
+        REJECT,
+        QUEUE
+    }
+
+    private final int port;
+    private final ExecutorType executorType;
+    private final int executorThreads;
+    private final Transport transport;
+    private final int bossThreads;
+    private final int workerThreads;
+    private final int maxConcurrentCallsPerConnection;
+    private final int flowControlWindow;
+    private final int maxInboundMessageSize;
+    private final long keepAliveTimeMillis;
+    private final long keepAliveTimeoutMillis;
+    private final long permitKeepAliveTimeMillis;
+    private final boolean permitKeepAliveWithoutCalls;
+    private final File tlsCertChain;
+    private final File tlsPrivateKey;
+    private final int metricsPort;
+    private final ConcurrencyLimitMode concurrencyLimitMode;
+    private final int concurrencyLimitMaxQueued;
+    private final long concurrencyLimitMaxWaitMillis;
+
+    private ServerConfig(Builder builder) {
+        this.port = builder.port;
+        this.executorType = builder.executorType;
+        this.executorThreads = builder.executorThreads;
+        this.transport = builder.transport;
+        this.bossThreads = builder.bossThreads;
+        this.workerThreads = builder.workerThreads;
+        this.maxConcurrentCallsPerConnection = builder.maxConcurrentCallsPerConnection;
+        this.flowControlWindow = builder.flowControlWindow;
+        this.maxInboundMessageSize = builder.maxInboundMessageSize;
+        this.keepAliveTimeMillis = builder.keepAliveTimeMillis;
+        this.keepAliveTimeoutMillis = builder.keepAliveTimeoutMillis;
+        this.permitKeepAliveTimeMillis = builder.permitKeepAliveTimeMillis;
+        this.permitKeepAliveWithoutCalls = builder.permitKeepAliveWithoutCalls;
+        this.tlsCertChain = builder.tlsCertChain;
+        this.tlsPrivateKey = builder.tlsPrivateKey;
+        this.metricsPort = builder.metricsPort;
+        this.concurrencyLimitMode = builder.concurrencyLimitMode;
+        this.concurrencyLimitMaxQueued = builder.concurrencyLimitMaxQueued;
+        this.concurrencyLimitMaxWaitMillis = builder.concurrencyLimitMaxWaitMillis;
+    }
+
+    public static Builder newBuilder(int port) {
+        return new Builder(port);
+    }
+
+    /**
+     * @param defaultPort the port when grpc.port is not set
+     */
+    public static ServerConfig fromSystemProperties(int defaultPort) {
+        int port = Integer.getInteger("grpc.port", defaultPort);
+        Builder builder = newBuilder(port)
+                .executor(ExecutorType.valueOf(System.getProperty("grpc.executor", "default").toUpperCase()),
+                        Integer.getInteger("grpc.executor.threads", Runtime.getRuntime().availableProcessors()))
+                .transport(Transport.valueOf(System.getProperty("grpc.transport", "auto").toUpperCase()))
+                .eventLoops(Integer.getInteger("grpc.bossThreads", 0), Integer.getInteger("grpc.workerThreads", 0))
+                .maxConcurrentCallsPerConnection(Integer.getInteger("grpc.maxConcurrentCallsPerConnection", 0))
+                .flowControlWindow(Integer.getInteger("grpc.flowControlWindow", Builder.DEFAULT_FLOW_CONTROL_WINDOW))
+                .maxInboundMessageSize(Integer.getInteger("grpc.maxInboundMessageSize", Builder.DEFAULT_MAX_INBOUND_MESSAGE_SIZE))
+                .keepAlive(Long.getLong("grpc.keepAliveTimeMillis", 0), Long.getLong("grpc.keepAliveTimeoutMillis", 0))
+                .permitKeepAlive(Long.getLong("grpc.permitKeepAliveTimeMillis", Builder.DEFAULT_PERMIT_KEEP_ALIVE_TIME_MILLIS),
+                        Boolean.getBoolean("grpc.permitKeepAliveWithoutCalls"))
+                .metricsPort(Integer.getInteger("grpc.metrics.port", port > 0 ? port + 10000 : -1))
+                .concurrencyLimit(ConcurrencyLimitMode.valueOf(System.getProperty("grpc.limit.mode", "off").toUpperCase()),
+                        Integer.getInteger("grpc.limit.maxQueued", Builder.DEFAULT_CONCURRENCY_LIMIT_MAX_QUEUED),
+                        Long.getLong("grpc.limit.maxWaitMillis", Builder.DEFAULT_CONCURRENCY_LIMIT_MAX_WAIT_MILLIS));
+
+        String certChain = System.getProperty("grpc.tls.certChain");
+        String privateKey = System.getProperty("grpc.tls.privateKey");
+        if (certChain != null || privateKey != null) {
+            if (certChain == null || privateKey == null) {
+                throw new IllegalArgumentException("TLS needs both grpc.tls.certChain and grpc.tls.privateKey");
+            }
+            builder.tls(new File(certChain), new File(privateKey));
+        }
+        return builder.build();
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public ExecutorType getExecutorType() {
+        return executorType;
+    }
+
+    public int getExecutorThreads() {
+        return executorThreads;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public int getBossThreads() {
+        return bossThreads;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public int getMaxConcurrentCallsPerConnection() {
+        return maxConcurrentCallsPerConnection;
+    }
+
+    public int getFlowControlWindow() {
+        return flowControlWindow;
+    }
+
+    public int getMaxInboundMessageSize() {
+        return maxInboundMessageSize;
+    }
+
+    public long getKeepAliveTimeMillis() {
+        return keepAliveTimeMillis;
+    }
+
+    public long getKeepAliveTimeoutMillis() {
+        return keepAliveTimeoutMillis;
+    }
+
+    public long getPermitKeepAliveTimeMillis() {
+        return permitKeepAliveTimeMillis;
+    }
+
+    public boolean isPermitKeepAliveWithoutCalls() {
+        return permitKeepAliveWithoutCalls;
+    }
+
+    /**
+     * @return the certificate chain to serve TLS with, null for plaintext
+     */
+    public File getTlsCertChain() {
+        return tlsCertChain;
+    }
+
+    public File getTlsPrivateKey() {
+        return tlsPrivateKey;
+    }
+
+    /**
+     * @return the local port of the Prometheus metrics, 0 for any free port, -1 for no metrics
+     */
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public ConcurrencyLimitMode getConcurrencyLimitMode() {
+        return concurrencyLimitMode;
+    }
+
+    public int getConcurrencyLimitMaxQueued() {
+        return concurrencyLimitMaxQueued;
+    }
+
+    public long getConcurrencyLimitMaxWaitMillis() {
+        return concurrencyLimitMaxWaitMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "port=" + port
+                + ", executor=" + executorType + (executorType == ExecutorType.FIXED ? "(" + executorThreads + ")" : "")
+                + ", transport=" + transport
+                + ", bossThreads=" + bossThreads
+                + ", workerThreads=" + workerThreads
+                + ", maxConcurrentCallsPerConnection=" + maxConcurrentCallsPerConnection
+                + ", flowControlWindow=" + flowControlWindow
+                + ", maxInboundMessageSize=" + maxInboundMessageSize
+                + ", keepAliveTimeMillis=" + keepAliveTimeMillis
+                + ", keepAliveTimeoutMillis=" + keepAliveTimeoutMillis
+                + ", permitKeepAliveTimeMillis=" + permitKeepAliveTimeMillis
+                + ", permitKeepAliveWithoutCalls=" + permitKeepAliveWithoutCalls
+                + ", tls=" + (tlsCertChain != null)
+                + ", metricsPort=" + metricsPort
+                + ", concurrencyLimit=" + concurrencyLimitMode
+                + (concurrencyLimitMode == ConcurrencyLimitMode.QUEUE
+                ? "(" + concurrencyLimitMaxQueued + ", " + concurrencyLimitMaxWaitMillis + " ms)" : "");
+    }
+
+    public static final class Builder {
+
+        // the defaults of the Netty server of gRPC
+        static final int DEFAULT_FLOW_CONTROL_WINDOW = 1024 * 1024;
+        static final int DEFAULT_MAX_INBOUND_MESSAGE_SIZE = 4 * 1024 * 1024;
+        static final long DEFAULT_PERMIT_KEEP_ALIVE_TIME_MILLIS = 5 * 60 * 1000L;
+        static final int DEFAULT_CONCURRENCY_LIMIT_MAX_QUEUED = 100;
+        static final long DEFAULT_CONCURRENCY_LIMIT_MAX_WAIT_MILLIS = 100;
+
+        private final int port;
+        private ExecutorType executorType = ExecutorType.DEFAULT;
+        private int executorThreads = Runtime.getRuntime().availableProcessors();
+        private Transport transport = Transport.AUTO;
+        private int bossThreads = 0;
+        private int workerThreads = 0;
+        private int maxConcurrentCallsPerConnection = 0;
+        private int flowControlWindow = DEFAULT_FLOW_CONTROL_WINDOW;
+        private int maxInboundMessageSize = DEFAULT_MAX_INBOUND_MESSAGE_SIZE;
+        private long keepAliveTimeMillis = 0;
+        private long keepAliveTimeoutMillis = 0;
+        private long permitKeepAliveTimeMillis = DEFAULT_PERMIT_KEEP_ALIVE_TIME_MILLIS;
+        private boolean permitKeepAliveWithoutCalls = false;
+        private File tlsCertChain;
+        private File tlsPrivateKey;
+        private int metricsPort = -1;
+        private ConcurrencyLimitMode concurrencyLimitMode = ConcurrencyLimitMode.OFF;
+        private int concurrencyLimitMaxQueued = DEFAULT_CONCURRENCY_LIMIT_MAX_QUEUED;
+        private long concurrencyLimitMaxWaitMillis = DEFAULT_CONCURRENCY_LIMIT_MAX_WAIT_MILLIS;
+
+        private Builder(int port) {
+            this.port = port;
+        }
+
+        /**
+         * @param threads the number of threads of a FIXED executor, ignored by the others
+         */
+        public Builder executor(ExecutorType executorType, int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("The executor needs at least one thread");
+            }
+            this.executorType = executorType;
+            this.executorThreads = threads;
+            return this;
+        }
+
+        public Builder transport(Transport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * @param bossThreads   threads accepting the connections, 0 for the Netty default
+         * @param workerThreads threads serving the connections, 0 for the Netty default
+         */
+        public Builder eventLoops(int bossThreads, int workerThreads) {
+            if (bossThreads < 0 || workerThreads < 0) {
+                throw new IllegalArgumentException("The event loop sizes must not be negative");
+            }
+            this.bossThreads = bossThreads;
+            this.workerThreads = workerThreads;
+            return this;
+        }
+
+        /**
+         * @param maxConcurrentCallsPerConnection 0 for no limit
+         */
+        public Builder maxConcurrentCallsPerConnection(int maxConcurrentCallsPerConnection) {
+            if (maxConcurrentCallsPerConnection < 0) {
+                throw new IllegalArgumentException("The maximum of concurrent calls must not be negative");
+            }
+            this.maxConcurrentCallsPerConnection = maxConcurrentCallsPerConnection;
+            return this;
+        }
+
+        public Builder flowControlWindow(int flowControlWindow) {
+            if (flowControlWindow < 1) {
+                throw new IllegalArgumentException("The flow control window must be positive");
+            }
+            this.flowControlWindow = flowControlWindow;
+            return this;
+        }
+
+        public Builder maxInboundMessageSize(int maxInboundMessageSize) {
+            if (maxInboundMessageSize < 1) {
+                throw new IllegalArgumentException("The maximum inbound message size must be positive");
+            }
+            this.maxInboundMessageSize = maxInboundMessageSize;
+            return this;
+        }
+
+        /**
+         * @param keepAliveTimeMillis    0 for the gRPC default
+         * @param keepAliveTimeoutMillis 0 for the gRPC default
+         */
+        public Builder keepAlive(long keepAliveTimeMillis, long keepAliveTimeoutMillis) {
+            if (keepAliveTimeMillis < 0 || keepAliveTimeoutMillis < 0) {
+                throw new IllegalArgumentException("The keepalive times must not be negative");
+            }
+            this.keepAliveTimeMillis = keepAliveTimeMillis;
+            this.keepAliveTimeoutMillis = keepAliveTimeoutMillis;
+            return this;
+        }
+
+        public Builder permitKeepAlive(long permitKeepAliveTimeMillis, boolean permitKeepAliveWithoutCalls) {
+            if (permitKeepAliveTimeMillis < 0) {
+                throw new IllegalArgumentException("The permitted keepalive time must not be negative");
+            }
+            this.permitKeepAliveTimeMillis = permitKeepAliveTimeMillis;
+            this.permitKeepAliveWithoutCalls = permitKeepAliveWithoutCalls;
+            return this;
+        }
+
+        public Builder tls(File certChain, File privateKey) {
+            this.tlsCertChain = certChain;
+            this.tlsPrivateKey = privateKey;
+            return this;
+        }
+
+        /**
+         * @param metricsPort the local port of the Prometheus metrics, 0 for any free port, -1 for no metrics
+         */
+        public Builder metricsPort(int metricsPort) {
+            if (metricsPort < -1) {
+                throw new IllegalArgumentException("The metrics port must be -1 or more");
+            }
+            this.metricsPort = metricsPort;
+            return this;
+        }
+
+        /**
+         * @param maxQueued     the calls of a method that may wait for its limit, ignored unless the mode is QUEUE
+         * @param maxWaitMillis how long a call may wait, ignored unless the mode is QUEUE
+         */
+        public Builder concurrencyLimit(ConcurrencyLimitMode mode, int maxQueued, long maxWaitMillis) {
+            if (maxQueued < 0 || maxWaitMillis < 0) {
+                throw new IllegalArgumentException("The queue size and the wait of the concurrency limit must not be negative");
+            }
+            this.concurrencyLimitMode = mode;
+            this.concurrencyLimitMaxQueued = maxQueued;
+            this.concurrencyLimitMaxWaitMillis = maxWaitMillis;
+            return this;
+        }
+
+        public ServerConfig build() {
+            return new ServerConfig(this);
+        }
+    }
+}
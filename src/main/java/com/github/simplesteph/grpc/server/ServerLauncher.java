@@ -0,0 +1,250 @@
+package com.github.simplesteph.grpc.server;
+
+import io.grpc.BindableService;
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.ServerChannel;
+import io.grpc.netty.shaded.io.netty.channel.epoll.Epoll;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Builds a Netty gRPC server from a {@link ServerConfig}, and releases the threads it created once the server stops.
+ * <p>
+ * The services are added before {@link #start()}, several services share the port of the server.
+ * Unless the config says otherwise, the calls are measured by {@link ServerMetrics},
+ * served to Prometheus by a {@link MetricsHttpServer}, and the calls of each method are limited
+ * by a {@link ConcurrencyLimitInterceptor}.
+ */
+public class ServerLauncher {
+
+    // how long the calls in flight get to finish on shutdown
+    private static final long SHUTDOWN_GRACE_SECONDS = 30;
+
+    private static final Logger logger = Logger.getLogger(ServerLauncher.class.getName());
+
+    private final ServerConfig config;
+    private final NettyServerBuilder builder;
+
+    // null when the gRPC defaults are used
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private ExecutorService executor;
+
+    // null without metrics
+    private ServerMetrics metrics;
+    private MetricsHttpServer metricsHttpServer;
+
+    // null without concurrency limit
+    private ConcurrencyLimitInterceptor concurrencyLimit;
+
+    private Server server;
+
+    public ServerLauncher(ServerConfig config) {
+        this.config = config;
+        this.builder = NettyServerBuilder.forPort(config.getPort())
+                .flowControlWindow(config.getFlowControlWindow())
+                .maxInboundMessageSize(config.getMaxInboundMessageSize())
+                .permitKeepAliveTime(config.getPermitKeepAliveTimeMillis(), TimeUnit.MILLISECONDS)
+                .permitKeepAliveWithoutCalls(config.isPermitKeepAliveWithoutCalls());
+
+        if (config.getMaxConcurrentCallsPerConnection() > 0) {
+            builder.maxConcurrentCallsPerConnection(config.getMaxConcurrentCallsPerConnection());
+        }
+        if (config.getKeepAliveTimeMillis() > 0) {
+            builder.keepAliveTime(config.getKeepAliveTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+        if (config.getKeepAliveTimeoutMillis() > 0) {
+            builder.keepAliveTimeout(config.getKeepAliveTimeoutMillis(), TimeUnit.MILLISECONDS);
+        }
+        if (config.getTlsCertChain() != null) {
+            builder.useTransportSecurity(config.getTlsCertChain(), config.getTlsPrivateKey());
+        }
+
+        configureTransport();
+        configureExecutor();
+
+        if (config.getMetricsPort() >= 0) {
+            metrics = new ServerMetrics();
+            builder.addStreamTracerFactory(metrics.streamTracerFactory());
+        }
+        configureConcurrencyLimit();
+    }
+
+    public ServerLauncher addService(BindableService service) {
+        builder.addService(service);
+        return this;
+    }
+
+    public ServerLauncher addService(ServerServiceDefinition service) {
+        builder.addService(service);
+        return this;
+    }
+
+    /**
+     * @return the metrics of the calls, null if the config has no metrics port
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Serves the metrics of the source next to the ones of the calls, unless the config has no metrics port.
+     */
+    public ServerLauncher addMetricsSource(ServerMetrics.Source source) {
+        if (metrics != null) {
+            metrics.addSource(source);
+        }
+        return this;
+    }
+
+    /**
+     * @return the limits of the methods, null if the config has no concurrency limit
+     */
+    public ConcurrencyLimitInterceptor getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    public Server start() throws IOException {
+        server = builder.build();
+        try {
+            server.start();
+            if (metrics != null) {
+                metricsHttpServer = new MetricsHttpServer(config.getMetricsPort(), metrics).start();
+            }
+        } catch (IOException | RuntimeException e) {
+            server.shutdownNow();
+            releaseThreads();
+            throw e;
+        }
+        logger.info("Server started, " + config);
+        if (metricsHttpServer != null) {
+            logger.info("Metrics on http://localhost:" + metricsHttpServer.getPort() + "/metrics");
+        }
+        return server;
+    }
+
+    public void awaitTermination() throws InterruptedException {
+        server.awaitTermination();
+    }
+
+    /**
+     * Stops accepting calls, lets the calls in flight finish for a while, then stops the server threads.
+     */
+    public void shutdown() {
+        server.shutdown();
+        try {
+            if (!server.awaitTermination(SHUTDOWN_GRACE_SECONDS, TimeUnit.SECONDS)) {
+                server.shutdownNow();
+                server.awaitTermination();
+            }
+        } catch (InterruptedException e) {
+            server.shutdownNow();
+            Thread.currentThread().interrupt();
+        } finally {
+            releaseThreads();
+        }
+    }
+
+    private void configureTransport() {
+        boolean epoll;
+        switch (config.getTransport()) {
+            case EPOLL:
+                if (!Epoll.isAvailable()) {
+                    throw new IllegalStateException("The epoll transport is not available", Epoll.unavailabilityCause());
+                }
+                epoll = true;
+                break;
+            case NIO:
+                epoll = false;
+                break;
+            default:
+                epoll = Epoll.isAvailable();
+        }
+
+        if (!epoll && config.getBossThreads() == 0 && config.getWorkerThreads() == 0) {
+            // the event loops shared by all the gRPC servers and channels
+            return;
+        }
+
+        // the groups and the channel type go together, gRPC only picks them when none is set
+        int bossThreads = config.getBossThreads() > 0 ? config.getBossThreads() : 1;
+        ThreadFactory bossThreadFactory = new DefaultThreadFactory("grpc-boss", true);
+        ThreadFactory workerThreadFactory = new DefaultThreadFactory("grpc-worker", true);
+        Class<? extends ServerChannel> channelType;
+        if (epoll) {
+            bossGroup = new EpollEventLoopGroup(bossThreads, bossThreadFactory);
+            workerGroup = new EpollEventLoopGroup(config.getWorkerThreads(), workerThreadFactory);
+            channelType = EpollServerSocketChannel.class;
+        } else {
+            bossGroup = new NioEventLoopGroup(bossThreads, bossThreadFactory);
+            workerGroup = new NioEventLoopGroup(config.getWorkerThreads(), workerThreadFactory);
+            channelType = NioServerSocketChannel.class;
+        }
+        builder.bossEventLoopGroup(bossGroup)
+                .workerEventLoopGroup(workerGroup)
+                .channelType(channelType);
+    }
+
+    private void configureExecutor() {
+        switch (config.getExecutorType()) {
+            case DIRECT:
+                // the calls run on the event loops, a blocking service would stall every connection of its loop
+                builder.directExecutor();
+                break;
+            case FIXED:
+                executor = Executors.newFixedThreadPool(config.getExecutorThreads(),
+                        new DefaultThreadFactory("grpc-executor", true));
+                builder.executor(executor);
+                break;
+            default:
+                // a cached thread pool shared by the gRPC servers
+        }
+    }
+
+    private void configureConcurrencyLimit() {
+        ConcurrencyLimitInterceptor.Mode mode;
+        switch (config.getConcurrencyLimitMode()) {
+            case REJECT:
+                mode = ConcurrencyLimitInterceptor.Mode.REJECT;
+                break;
+            case QUEUE:
+                mode = ConcurrencyLimitInterceptor.Mode.QUEUE;
+                break;
+            default:
+                return;
+        }
+        concurrencyLimit = new ConcurrencyLimitInterceptor(mode,
+                config.getConcurrencyLimitMaxQueued(), config.getConcurrencyLimitMaxWaitMillis(), TimeUnit.MILLISECONDS);
+        // applies to the calls of every service of the server
+        builder.intercept(concurrencyLimit);
+        if (metrics != null) {
+            metrics.addSource(concurrencyLimit);
+        }
+    }
+
+    private void releaseThreads() {
+        if (metricsHttpServer != null) {
+            metricsHttpServer.stop();
+        }
+        if (bossGroup != null) {
+            bossGroup.shutdownGracefully();
+            workerGroup.shutdownGracefully();
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.github.simplesteph.grpc.server;
+
+import io.grpc.MethodDescriptor;
+import io.grpc.Metadata;
+import io.grpc.ServerStreamTracer;
+import io.grpc.Status;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per method counters and latency histograms of the calls of a server, written in the Prometheus text format.
+ * <p>
+ * The calls are followed by a {@link ServerStreamTracer}: unlike an interceptor it sees the sizes of the messages
+ * on the wire, and the final status of every call, including the cancelled ones. Recording only adds to
+ * {@link LongAdder}s and a {@link LatencyHistogram}, so apart from the tracer of each call nothing is allocated,
+ * and the metrics of a method are created on its first call.
+ */
+public class ServerMetrics {
+
+    // the calls of methods the server does not know share one set of metrics, so clients cannot add methods
+    private static final String UNKNOWN_METHOD = "unknown/unknown";
+
+    // the le buckets of the latency histograms, in seconds
+    private static final double[] LATENCY_BUCKETS_SECONDS = {
+            0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+
+    private static final Status.Code[] CODES = Status.Code.values();
+
+    /**
+     * Other metrics of the server, written after the ones of the calls, like the counters of the caches.
+     * Each source writes its own metric families, with {@link #header} and {@link #sample}.
+     */
+    public interface Source {
+
+        void writePrometheus(StringBuilder out);
+    }
+
+    private final ConcurrentHashMap<String, MethodMetrics> methods = new ConcurrentHashMap<>();
+    private final List<Source> sources = new CopyOnWriteArrayList<>();
+
+    private final ServerStreamTracer.Factory streamTracerFactory = new ServerStreamTracer.Factory() {
+        @Override
+        public ServerStreamTracer newServerStreamTracer(String fullMethodName, Metadata headers) {
+            return new CallTracer();
+        }
+    };
+
+    public ServerStreamTracer.Factory streamTracerFactory() {
+        return streamTracerFactory;
+    }
+
+    public void addSource(Source source) {
+        sources.add(source);
+    }
+
+    /**
+     * @param fullMethodName like greet.GreetService/Greet
+     * @return the latencies of the completed calls of this method, null before its first call
+     */
+    public LatencyHistogram latency(String fullMethodName) {
+        MethodMetrics metrics = methods.get(fullMethodName);
+        return metrics == null ? null : metrics.latency;
+    }
+
+    private MethodMetrics metricsOf(String fullMethodName) {
+        MethodMetrics metrics = methods.get(fullMethodName);
+        return metrics != null ? metrics : methods.computeIfAbsent(fullMethodName, MethodMetrics::new);
+    }
+
+    /**
+     * Writes all the metrics in the Prometheus text exposition format, version 0.0.4.
+     */
+    public void writePrometheus(StringBuilder out) {
+        // sorted, so successive scrapes list the methods in the same order
+        Map<String, MethodMetrics> sorted = new TreeMap<>(methods);
+
+        header(out, "grpc_server_started_total", "counter", "Calls started on the server.");
+        for (MethodMetrics metrics : sorted.values()) {
+            sample(out, "grpc_server_started_total", metrics.labels, metrics.started.sum());
+        }
+
+        header(out, "grpc_server_handled_total", "counter", "Calls completed on the server, by status code.");
+        for (MethodMetrics metrics : sorted.values()) {
+            for (Status.Code code : CODES) {
+                long count = metrics.completed[code.value()].sum();
+                if (count > 0) {
+                    sample(out, "grpc_server_handled_total",
+                            metrics.labels + ",grpc_code=\"" + code + "\"", count);
+                }
+            }
+        }
+
+        header(out, "grpc_server_in_flight", "gauge", "Calls started and not completed yet.");
+        for (MethodMetrics metrics : sorted.values()) {
+            sample(out, "grpc_server_in_flight", metrics.labels, metrics.inFlight());
+        }
+
+        header(out, "grpc_server_msg_received_total", "counter", "Messages received from the clients.");
+        for (MethodMetrics metrics : sorted.values()) {
+            sample(out, "grpc_server_msg_received_total", metrics.labels, metrics.messagesReceived.sum());
+        }
+
+        header(out, "grpc_server_msg_sent_total", "counter", "Messages sent to the clients.");
+        for (MethodMetrics metrics : sorted.values()) {
+            sample(out, "grpc_server_msg_sent_total", metrics.labels, metrics.messagesSent.sum());
+        }
+
+        header(out, "grpc_server_received_bytes_total", "counter", "Bytes of the messages received, as sent on the wire.");
+        for (MethodMetrics metrics : sorted.values()) {
+            sample(out, "grpc_server_received_bytes_total", metrics.labels, metrics.bytesReceived.sum());
+        }
+
+        header(out, "grpc_server_sent_bytes_total", "counter", "Bytes of the messages sent, as sent on the wire.");
+        for (MethodMetrics metrics : sorted.values()) {
+            sample(out, "grpc_server_sent_bytes_total", metrics.labels, metrics.bytesSent.sum());
+        }
+
+        header(out, "grpc_server_handling_seconds", "histogram", "Time from the start to the end of the calls.");
+        for (MethodMetrics metrics : sorted.values()) {
+            LatencyHistogram latency = metrics.latency;
+            // read first, so no bucket counts more calls than the total
+            long count = latency.count();
+            double sumSeconds = latency.sumNanos() / 1e9;
+            for (double bucket : LATENCY_BUCKETS_SECONDS) {
+                long below = Math.min(count, latency.countAtOrBelow((long) (bucket * 1e9)));
+                sample(out, "grpc_server_handling_seconds_bucket",
+                        metrics.labels + ",le=\"" + BigDecimal.valueOf(bucket).toPlainString() + "\"", below);
+            }
+            sample(out, "grpc_server_handling_seconds_bucket", metrics.labels + ",le=\"+Inf\"", count);
+            out.append("grpc_server_handling_seconds_sum{").append(metrics.labels).append("} ")
+                    .append(sumSeconds).append('\n');
+            sample(out, "grpc_server_handling_seconds_count", metrics.labels, count);
+        }
+
+        for (Source source : sources) {
+            source.writePrometheus(out);
+        }
+    }
+
+    /**
+     * @return the labels of a method: grpc_service="greet.GreetService",grpc_method="Greet"
+     */
+    static String labels(String fullMethodName) {
+        String service = MethodDescriptor.extractFullServiceName(fullMethodName);
+        String method = fullMethodName.substring(fullMethodName.lastIndexOf('/') + 1);
+        return "grpc_service=\"" + service + "\",grpc_method=\"" + method + "\"";
+    }
+
+    public static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    public static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    /**
+     * Writes a metric without labels.
+     */
+    public static void sample(StringBuilder out, String name, long value) {
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static final class MethodMetrics {
+
+        // grpc_service="greet.GreetService",grpc_method="Greet"
+        final String labels;
+
+        final LongAdder started = new LongAdder();
+        final LongAdder[] completed = new LongAdder[CODES.length];
+        final LongAdder completedTotal = new LongAdder();
+        final LongAdder messagesReceived = new LongAdder();
+        final LongAdder messagesSent = new LongAdder();
+        final LongAdder bytesReceived = new LongAdder();
+        final LongAdder bytesSent = new LongAdder();
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        MethodMetrics(String fullMethodName) {
+            this.labels = labels(fullMethodName);
+            for (int i = 0; i < completed.length; i++) {
+                completed[i] = new LongAdder();
+            }
+        }
+
+        long inFlight() {
+            // completed first, so a call completing meanwhile is not counted as completed and not started
+            long done = completedTotal.sum();
+            return Math.max(0, started.sum() - done);
+        }
+    }
+
+    /**
+     * Follows one call. Its callbacks may come from different threads, but each one is called once
+     * per event, so the tracer only keeps what never changes after the start of the call.
+     */
+    private final class CallTracer extends ServerStreamTracer {
+
+        private final long startNanos = System.nanoTime();
+        // set when the call starts, before any message, null for the methods the server does not know
+        private volatile MethodMetrics metrics;
+
+        @Override
+        public void serverCallStarted(ServerCallInfo<?, ?> callInfo) {
+            MethodMetrics metrics = metricsOf(callInfo.getMethodDescriptor().getFullMethodName());
+            metrics.started.increment();
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void inboundMessage(int seqNo) {
+            MethodMetrics metrics = this.metrics;
+            if (metrics != null) {
+                metrics.messagesReceived.increment();
+            }
+        }
+
+        @Override
+        public void outboundMessage(int seqNo) {
+            MethodMetrics metrics = this.metrics;
+            if (metrics != null) {
+                metrics.messagesSent.increment();
+            }
+        }
+
+        @Override
+        public void inboundWireSize(long bytes) {
+            MethodMetrics metrics = this.metrics;
+            if (metrics != null) {
+                metrics.bytesReceived.add(bytes);
+            }
+        }
+
+        @Override
+        public void outboundWireSize(long bytes) {
+            MethodMetrics metrics = this.metrics;
+            if (metrics != null) {
+                metrics.bytesSent.add(bytes);
+            }
+        }
+
+        @Override
+        public void streamClosed(Status status) {
+            MethodMetrics metrics = this.metrics;
+            if (metrics == null) {
+                // never started, like the calls of unknown methods
+                metrics = metricsOf(UNKNOWN_METHOD);
+                metrics.started.increment();
+            }
+            metrics.latency.record(System.nanoTime() - startNanos);
+            metrics.completed[status.getCode().value()].increment();
+            metrics.completedTotal.increment();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.github.simplesteph.grpc.blog.server;
+
+import com.proto.blog.Blog;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BlogCacheTest {
+
+    private final BlogCache cache = new BlogCache(16, 1, TimeUnit.MINUTES);
+    private final Blog blog = Blog.newBuilder()
+            .setId(new ObjectId().toHexString())
+            .setTitle("title")
+            .build();
+
+    @Test
+    public void readsAnIdInAnyCase() {
+        cache.put(blog, cache.loadToken(blog.getId()));
+
+        assertEquals(blog, cache.get(blog.getId().toUpperCase()));
+    }
+
+    @Test
+    public void invalidatesAnIdInAnyCase() {
+        cache.put(blog, cache.loadToken(blog.getId()));
+
+        cache.invalidate(blog.getId().toUpperCase());
+
+        assertNull(cache.get(blog.getId()));
+    }
+
+    @Test
+    public void dropsALoadInvalidatedInAnotherCase() {
+        long loadToken = cache.loadToken(blog.getId().toUpperCase());
+        cache.invalidate(blog.getId());
+
+        cache.put(blog, loadToken);
+
+        assertNull(cache.get(blog.getId()));
+    }
+
+    @Test
+    public void writesItsCountersForPrometheus() {
+        cache.get(blog.getId());
+        cache.put(blog, cache.loadToken(blog.getId()));
+        cache.get(blog.getId());
+        cache.get(blog.getId());
+
+        StringBuilder out = new StringBuilder();
+        cache.writePrometheus(out);
+
+        assertTrue(out.toString(), out.toString().contains("\nblog_cache_hits_total 2\n"));
+        assertTrue(out.toString(), out.toString().contains("\nblog_cache_misses_total 1\n"));
+        assertTrue(out.toString(), out.toString().contains("\nblog_cache_evictions_total 0\n"));
+    }
+
+    @Test
+    public void keepsIdsThatAreNotObjectIds() {
+        assertEquals("not-an-id", BlogCache.normalizeId("not-an-id"));
+    }
+}
@@ -0,0 +1,110 @@
+package com.github.simplesteph.grpc.blog.server;
+
+import com.proto.blog.Blog;
+import com.proto.blog.BlogServiceGrpc;
+import com.proto.blog.CreateBlogRequest;
+import com.proto.blog.CreateBlogResult;
+import com.proto.blog.CreateBlogsResponse;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CreateBlogsTest {
+
+    // far less than the results of all the blogs sent
+    private static final int CLIENT_MAX_INBOUND_MESSAGE_SIZE = 256 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private AsyncBlogRepository repository;
+    private Server server;
+    private ManagedChannel channel;
+
+    @Before
+    public void setUp() throws IOException {
+        repository = new ExecutorBlogRepository(
+                new EmbeddedBlogRepository(folder.newFile("blogs.log").toPath()), ExecutorBlogRepository.DIRECT);
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name)
+                .addService(new BlogServiceImpl(repository))
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(name)
+                .maxInboundMessageSize(CLIENT_MAX_INBOUND_MESSAGE_SIZE)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        repository.close();
+    }
+
+    @Test
+    public void streamsTheResultsOfEachBatchInOrder() throws Exception {
+        int count = 20_000;
+        List<CreateBlogsResponse> responses = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        StreamObserver<CreateBlogRequest> requests = BlogServiceGrpc.newStub(channel).createBlogs(
+                new StreamObserver<CreateBlogsResponse>() {
+                    @Override
+                    public void onNext(CreateBlogsResponse response) {
+                        responses.add(response);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        done.completeExceptionally(t);
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        done.complete(null);
+                    }
+                });
+        long sentBytes = 0;
+        for (int i = 0; i < count; i++) {
+            CreateBlogRequest request = CreateBlogRequest.newBuilder()
+                    .setBlog(Blog.newBuilder()
+                            .setAuthorId("author")
+                            .setTitle("blog " + i)
+                            .setContent("some content to make the results of all the blogs larger than a message"))
+                    .build();
+            sentBytes += request.getSerializedSize();
+            requests.onNext(request);
+        }
+        requests.onCompleted();
+        done.get(30, TimeUnit.SECONDS);
+
+        assertTrue("the results would fit in one message", sentBytes > CLIENT_MAX_INBOUND_MESSAGE_SIZE);
+        assertTrue(responses.size() > 1);
+        int index = 0;
+        for (CreateBlogsResponse response : responses) {
+            for (CreateBlogResult result : response.getResultsList()) {
+                assertEquals("blog " + index, result.getBlog().getTitle());
+                assertEquals(1, result.getBlog().getVersion());
+                index++;
+            }
+        }
+        assertEquals(count, index);
+    }
+}
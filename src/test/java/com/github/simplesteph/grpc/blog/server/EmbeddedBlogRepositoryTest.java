@@ -0,0 +1,138 @@
+package com.github.simplesteph.grpc.blog.server;
+
+import com.proto.blog.Blog;
+import com.proto.blog.BlogEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EmbeddedBlogRepositoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private EmbeddedBlogRepository repository;
+
+    @Before
+    public void setUp() throws IOException {
+        repository = new EmbeddedBlogRepository(folder.newFile("blogs.log").toPath());
+    }
+
+    @After
+    public void tearDown() {
+        repository.close();
+    }
+
+    @Test
+    public void resumesAfterTheEventOfTheToken() throws Exception {
+        Blog first = repository.create(blog("first"));
+        Blog second = repository.create(blog("second"));
+
+        BlogEventStream watch = repository.watch(token(0));
+        List<BlogEvent> events = watch.nextBatch().get(1, TimeUnit.SECONDS);
+        watch.close();
+        assertEquals(2, events.size());
+        assertEquals(first.getId(), events.get(0).getBlogId());
+
+        BlogEventStream resumed = repository.watch(events.get(0).getResumeToken());
+        List<BlogEvent> rest = resumed.nextBatch().get(1, TimeUnit.SECONDS);
+        resumed.close();
+        assertEquals(1, rest.size());
+        assertEquals(second.getId(), rest.get(0).getBlogId());
+        assertEquals(BlogEvent.Type.CREATED, rest.get(0).getType());
+    }
+
+    @Test
+    public void rejectsTokensInsideRecords() {
+        repository.create(blog("first"));
+        repository.create(blog("second"));
+
+        BlogEventStream watch = repository.watch(token(0));
+        List<BlogEvent> events = watch.nextBatch().join();
+        watch.close();
+        long firstEnd = offsetOf(events.get(0).getResumeToken());
+        long secondEnd = offsetOf(events.get(1).getResumeToken());
+
+        // such an offset reads part of a record as a length, -4 used to spin the watch forever
+        for (long offset = 1; offset < secondEnd; offset++) {
+            if (offset == firstEnd) {
+                continue;
+            }
+            try {
+                repository.watch(token(offset));
+                fail("accepted the offset " + offset);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void rejectsMalformedTokens() {
+        for (String token : new String[]{"not base64!", "AAAA", token(-1), token(1L << 40)}) {
+            try {
+                repository.watch(token);
+                fail("accepted " + token);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void closingAnIdleWatchEndsItsBatch() throws Exception {
+        BlogEventStream watch = repository.watch("");
+        CompletableFuture<List<BlogEvent>> batch = watch.nextBatch();
+        assertFalse(batch.isDone());
+
+        watch.close();
+
+        // without waiting for a write
+        assertTrue(batch.get(1, TimeUnit.SECONDS).isEmpty());
+        watch.close();
+    }
+
+    @Test
+    public void wakesUpWaitingWatchesOnWrite() throws Exception {
+        BlogEventStream watch = repository.watch("");
+        CompletableFuture<List<BlogEvent>> batch = watch.nextBatch();
+
+        Blog created = repository.create(blog("new"));
+
+        List<BlogEvent> events = batch.get(1, TimeUnit.SECONDS);
+        watch.close();
+        assertEquals(1, events.size());
+        assertEquals(created.getId(), events.get(0).getBlogId());
+    }
+
+    private static Blog blog(String title) {
+        return Blog.newBuilder()
+                .setAuthorId("author")
+                .setTitle(title)
+                .setContent("content")
+                .build();
+    }
+
+    private static long offsetOf(String token) {
+        return ByteBuffer.wrap(Base64.getUrlDecoder().decode(token)).getLong();
+    }
+
+    private static String token(long offset) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(ByteBuffer.allocate(8).putLong(offset).array());
+    }
+}
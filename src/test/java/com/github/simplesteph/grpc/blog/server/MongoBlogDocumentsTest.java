@@ -0,0 +1,36 @@
+package com.github.simplesteph.grpc.blog.server;
+
+import com.google.protobuf.FieldMask;
+import com.mongodb.MongoClientSettings;
+import org.bson.BsonDocument;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MongoBlogDocumentsTest {
+
+    @Test
+    public void readsAllFieldsWithoutMask() {
+        assertNull(MongoBlogDocuments.toProjection(BlogReadMask.ALL));
+    }
+
+    @Test
+    public void projectsOnlyTheIdForAnIdMask() {
+        // the empty projection would return every field
+        assertEquals(BsonDocument.parse("{_id: 1}"), projection("id"));
+    }
+
+    @Test
+    public void projectsTheMaskedFields() {
+        assertEquals(BsonDocument.parse("{_id: 1, title: 1, author_id: 1}"), projection("title", "author_id"));
+    }
+
+    private static BsonDocument projection(String... paths) {
+        BlogReadMask readMask = BlogReadMask.of(FieldMask.newBuilder().addAllPaths(Arrays.asList(paths)).build());
+        return MongoBlogDocuments.toProjection(readMask)
+                .toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry());
+    }
+}
@@ -0,0 +1,118 @@
+package com.github.simplesteph.grpc.calculator.server;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PrimeFactorizerTest {
+
+    // the largest primes below 2^63 and 2^31.5
+    private static final long LARGEST_PRIME = 9_223_372_036_854_775_783L;
+    private static final long LARGEST_SQUARE_ROOT_PRIME = 3_037_000_493L;
+
+    @Test
+    public void hasNoFactorsBelowTwo() {
+        assertArrayEquals(new long[0], factor(0));
+        assertArrayEquals(new long[0], factor(1));
+        assertArrayEquals(new long[0], factor(-1));
+        assertArrayEquals(new long[0], factor(-12));
+        assertArrayEquals(new long[0], factor(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void factorsSmallNumbers() {
+        assertArrayEquals(new long[]{2}, factor(2));
+        assertArrayEquals(new long[]{2, 2, 3, 5}, factor(60));
+        assertArrayEquals(new long[]{2, 2, 2, 3, 3, 5, 7, 11, 13}, factor(360360));
+        assertArrayEquals(new long[]{65521}, factor(65521));
+        // a square of a prime just past the trial division table
+        assertArrayEquals(new long[]{65537, 65537}, factor(65537L * 65537));
+    }
+
+    @Test
+    public void factorsTheLargestNumbers() {
+        assertArrayEquals(new long[]{7, 7, 73, 127, 337, 92737, 649657}, factor(Long.MAX_VALUE));
+        assertArrayEquals(new long[]{LARGEST_PRIME}, factor(LARGEST_PRIME));
+        long[] twos = new long[62];
+        Arrays.fill(twos, 2);
+        assertArrayEquals(twos, factor(1L << 62));
+    }
+
+    @Test
+    public void factorsSquaresOfLargePrimes() {
+        long mersenne = Integer.MAX_VALUE;
+        assertArrayEquals(new long[]{mersenne, mersenne}, factor(mersenne * mersenne));
+        assertArrayEquals(new long[]{LARGEST_SQUARE_ROOT_PRIME, LARGEST_SQUARE_ROOT_PRIME},
+                factor(LARGEST_SQUARE_ROOT_PRIME * LARGEST_SQUARE_ROOT_PRIME));
+    }
+
+    @Test
+    public void factorsLargeSemiprimes() {
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            long p = BigInteger.probablePrime(31, random).longValue();
+            long q = BigInteger.probablePrime(31, random).longValue();
+            long[] expected = {Math.min(p, q), Math.max(p, q)};
+            assertArrayEquals(p + " * " + q, expected, factor(p * q));
+        }
+    }
+
+    @Test
+    public void matchesTrialDivision() {
+        Random random = new Random(7);
+        for (int i = 0; i < 2000; i++) {
+            // small enough for trial division to be quick
+            long number = random.nextLong() >>> 24;
+            assertArrayEquals(String.valueOf(number), trialDivision(number), factor(number));
+        }
+    }
+
+    @Test
+    public void factorsRandomNumbersIntoPrimes() {
+        Random random = new Random(11);
+        for (int i = 0; i < 20_000; i++) {
+            long number = random.nextLong() >>> 1;
+            long[] factors = factor(number);
+
+            long product = 1;
+            for (int j = 0; j < factors.length; j++) {
+                assertTrue(number + ": " + factors[j] + " is not prime",
+                        BigInteger.valueOf(factors[j]).isProbablePrime(50));
+                assertTrue(number + ": the factors are not sorted", j == 0 || factors[j - 1] <= factors[j]);
+                product *= factors[j];
+            }
+            assertEquals(number <= 1 ? 1 : number, product);
+        }
+    }
+
+    @Test(expected = CancellationException.class)
+    public void givesUpOnceCancelled() {
+        PrimeFactorizer.factor(2_147_483_647L * 2_147_483_629L, () -> true);
+    }
+
+    private static long[] factor(long number) {
+        return PrimeFactorizer.factor(number, () -> false);
+    }
+
+    private static long[] trialDivision(long number) {
+        long[] factors = new long[63];
+        int count = 0;
+        for (long divisor = 2; divisor * divisor <= number; divisor++) {
+            while (number % divisor == 0) {
+                factors[count++] = divisor;
+                number /= divisor;
+            }
+        }
+        if (number > 1) {
+            factors[count++] = number;
+        }
+        return Arrays.copyOf(factors, count);
+    }
+}
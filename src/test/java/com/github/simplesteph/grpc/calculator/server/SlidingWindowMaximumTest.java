@@ -0,0 +1,87 @@
+package com.github.simplesteph.grpc.calculator.server;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SlidingWindowMaximumTest {
+
+    @Test
+    public void startsEmpty() {
+        assertTrue(new SlidingWindowMaximum().isEmpty());
+    }
+
+    @Test
+    public void keepsTheMaximumOfNegativeValues() {
+        SlidingWindowMaximum window = new SlidingWindowMaximum();
+        window.add(-5, 1);
+        window.add(-3, 2);
+        window.add(-7, 3);
+        assertEquals(-3, window.max());
+
+        window.evictUpTo(2);
+        assertEquals(-7, window.max());
+
+        window.add(Integer.MIN_VALUE, 4);
+        assertEquals(-7, window.max());
+    }
+
+    @Test
+    public void evictsUpToTheKey() {
+        SlidingWindowMaximum window = new SlidingWindowMaximum();
+        window.add(9, 1);
+        window.add(4, 2);
+        window.add(6, 3);
+
+        window.evictUpTo(0);
+        assertEquals(9, window.max());
+        window.evictUpTo(1);
+        assertEquals(6, window.max());
+        window.evictUpTo(3);
+        assertTrue(window.isEmpty());
+
+        window.add(2, 4);
+        assertFalse(window.isEmpty());
+        assertEquals(2, window.max());
+    }
+
+    @Test
+    public void keepsEqualValuesUntilTheLastIsEvicted() {
+        SlidingWindowMaximum window = new SlidingWindowMaximum();
+        window.add(5, 1);
+        window.add(5, 2);
+
+        window.evictUpTo(1);
+        assertEquals(5, window.max());
+        window.evictUpTo(2);
+        assertTrue(window.isEmpty());
+    }
+
+    @Test
+    public void matchesABruteForceMaximum() {
+        // decreasing runs grow the deque past its initial capacity while the ring wraps around
+        Random random = new Random(5);
+        int[] values = new int[20_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i % 1000 < 100 ? -i : random.nextInt();
+        }
+
+        for (int size : new int[]{1, 2, 17, 100, 500}) {
+            SlidingWindowMaximum window = new SlidingWindowMaximum();
+            for (int i = 0; i < values.length; i++) {
+                window.add(values[i], i);
+                window.evictUpTo(i - size);
+
+                int expected = Integer.MIN_VALUE;
+                for (int j = Math.max(0, i - size + 1); j <= i; j++) {
+                    expected = Math.max(expected, values[j]);
+                }
+                assertEquals("window of " + size + " ending at " + i, expected, window.max());
+            }
+        }
+    }
+}
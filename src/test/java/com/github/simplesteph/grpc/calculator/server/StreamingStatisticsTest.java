@@ -0,0 +1,140 @@
+package com.github.simplesteph.grpc.calculator.server;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StreamingStatisticsTest {
+
+    @Test
+    public void hasNoStatisticsWithoutValues() {
+        StreamingStatistics statistics = new StreamingStatistics();
+
+        assertEquals(0, statistics.count());
+        assertEquals(0, statistics.sum());
+        assertEquals(0, statistics.min());
+        assertEquals(0, statistics.max());
+        assertTrue(Double.isNaN(statistics.mean()));
+        assertTrue(Double.isNaN(statistics.variance()));
+        assertTrue(Double.isNaN(statistics.percentile(50)));
+    }
+
+    @Test
+    public void describesASingleValue() {
+        for (int value : new int[]{0, 1, -1, 1000, -123_456, Integer.MAX_VALUE, Integer.MIN_VALUE}) {
+            StreamingStatistics statistics = new StreamingStatistics();
+            statistics.add(value);
+
+            assertEquals(1, statistics.count());
+            assertEquals(value, statistics.sum());
+            assertEquals(value, statistics.min());
+            assertEquals(value, statistics.max());
+            assertEquals(value, statistics.mean(), 0);
+            assertEquals(0, statistics.variance(), 0);
+            // the middle of the bucket is clamped to the only value
+            assertEquals(value, statistics.percentile(0), 0);
+            assertEquals(value, statistics.percentile(50), 0);
+            assertEquals(value, statistics.percentile(100), 0);
+        }
+    }
+
+    @Test
+    public void sumsPastTheIntRange() {
+        StreamingStatistics statistics = new StreamingStatistics();
+        for (int i = 0; i < 3; i++) {
+            statistics.add(Integer.MAX_VALUE);
+            statistics.add(Integer.MIN_VALUE);
+            statistics.add(Integer.MIN_VALUE);
+        }
+
+        assertEquals(3L * Integer.MAX_VALUE + 6L * Integer.MIN_VALUE, statistics.sum());
+        // exact, though the buckets of the extremes are 2^24 and 2^25 wide
+        assertEquals(Integer.MIN_VALUE, statistics.percentile(0), 0);
+        assertEquals(Integer.MAX_VALUE, statistics.percentile(100), 0);
+    }
+
+    @Test
+    public void computesTheVariance() {
+        StreamingStatistics statistics = new StreamingStatistics();
+        for (int value : new int[]{2, 4, 4, 4, 5, 5, 7, 9}) {
+            statistics.add(value);
+        }
+
+        assertEquals(5, statistics.mean(), 0);
+        assertEquals(4, statistics.variance(), 1e-12);
+    }
+
+    @Test
+    public void keepsTheVarianceAccurateFarFromZero() {
+        // the squares of these values are around 2^62, a naive sum of squares would lose the variance
+        StreamingStatistics statistics = new StreamingStatistics();
+        int n = 1000;
+        for (int i = 0; i < n; i++) {
+            statistics.add(Integer.MAX_VALUE - i);
+        }
+
+        assertEquals(Integer.MAX_VALUE - (n - 1) / 2.0, statistics.mean(), 1e-6);
+        // the variance of 0 .. n - 1
+        assertEquals((n * (double) n - 1) / 12, statistics.variance(), 1e-6);
+    }
+
+    @Test
+    public void hasExactPercentilesBelow128() {
+        for (int value = -127; value <= 127; value++) {
+            assertEquals(value, middlePercentile(value), 0);
+        }
+    }
+
+    @Test
+    public void boundsThePercentileErrorAtBucketBoundaries() {
+        for (int exponent = 6; exponent <= 31; exponent++) {
+            long power = 1L << exponent;
+            for (long magnitude : new long[]{power - 1, power, power + 1}) {
+                if (magnitude <= Integer.MAX_VALUE) {
+                    assertWithinBucket((int) magnitude);
+                }
+                assertWithinBucket((int) -magnitude);
+            }
+        }
+    }
+
+    @Test
+    public void boundsThePercentileErrorOfRandomValues() {
+        Random random = new Random(3);
+        for (int i = 0; i < 10_000; i++) {
+            assertWithinBucket(random.nextInt());
+        }
+    }
+
+    @Test
+    public void ranksTheNegativeValuesFirst() {
+        StreamingStatistics statistics = new StreamingStatistics();
+        for (int value = -50; value < 50; value++) {
+            statistics.add(value);
+        }
+
+        assertEquals(-50, statistics.percentile(0), 0);
+        assertEquals(-50, statistics.percentile(1), 0);
+        assertEquals(-1, statistics.percentile(50), 0);
+        assertEquals(0, statistics.percentile(51), 0);
+        assertEquals(49, statistics.percentile(100), 0);
+    }
+
+    // the median of the value between the extremes, so the clamp to the min and the max doesn't hide the bucket
+    private static double middlePercentile(int value) {
+        StreamingStatistics statistics = new StreamingStatistics();
+        statistics.add(Integer.MIN_VALUE);
+        statistics.add(value);
+        statistics.add(Integer.MAX_VALUE);
+        return statistics.percentile(50);
+    }
+
+    private static void assertWithinBucket(int value) {
+        // 64 buckets per power of two, the middle of a bucket is at most half its width from its values
+        double error = Math.abs(middlePercentile(value) - value);
+        assertTrue(value + " was approximated with an error of " + error, error <= Math.abs((double) value) / 128);
+    }
+}
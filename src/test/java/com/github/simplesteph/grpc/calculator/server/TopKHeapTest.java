@@ -0,0 +1,73 @@
+package com.github.simplesteph.grpc.calculator.server;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TopKHeapTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsAtLeastOneValue() {
+        new TopKHeap(0);
+    }
+
+    @Test
+    public void keepsEveryValueUntilFull() {
+        TopKHeap heap = new TopKHeap(3);
+        assertTrue(heap.isEmpty());
+        assertTrue(heap.offer(-2));
+        assertTrue(heap.offer(-9));
+
+        assertFalse(heap.isEmpty());
+        assertArrayEquals(new int[]{-2, -9}, heap.toSortedArray());
+    }
+
+    @Test
+    public void keepsTheLargestNegativeValues() {
+        TopKHeap heap = new TopKHeap(2);
+        heap.offer(-5);
+        heap.offer(-1);
+        heap.offer(-3);
+
+        assertFalse(heap.offer(Integer.MIN_VALUE));
+        assertArrayEquals(new int[]{-1, -3}, heap.toSortedArray());
+    }
+
+    @Test
+    public void dropsValuesEqualToTheSmallestKept() {
+        TopKHeap heap = new TopKHeap(2);
+        heap.offer(4);
+        heap.offer(7);
+
+        assertFalse(heap.offer(4));
+        assertTrue(heap.offer(5));
+        assertArrayEquals(new int[]{7, 5}, heap.toSortedArray());
+    }
+
+    @Test
+    public void matchesASortedStream() {
+        Random random = new Random(9);
+        for (int k : new int[]{1, 2, 3, 10, 64}) {
+            int[] values = new int[5_000];
+            TopKHeap heap = new TopKHeap(k);
+            for (int i = 0; i < values.length; i++) {
+                // few distinct values, so the duplicates are exercised too
+                values[i] = random.nextInt(200) - 100;
+                heap.offer(values[i]);
+            }
+
+            int[] sorted = values.clone();
+            Arrays.sort(sorted);
+            int[] expected = new int[k];
+            for (int i = 0; i < k; i++) {
+                expected[i] = sorted[sorted.length - 1 - i];
+            }
+            assertArrayEquals("k = " + k, expected, heap.toSortedArray());
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.github.simplesteph.grpc.common;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncLogHandlerTest {
+
+    @Test
+    public void writesTheRecordsOfEveryThreadInOrder() throws InterruptedException {
+        CollectingHandler target = new CollectingHandler(null);
+        AsyncLogHandler handler = new AsyncLogHandler(target, 1 << 16);
+
+        int threads = 8;
+        int recordsPerThread = 5000;
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String name = "producer-" + t;
+            producers.add(new Thread(() -> {
+                for (int i = 0; i < recordsPerThread; i++) {
+                    LogRecord record = new LogRecord(Level.INFO, String.valueOf(i));
+                    record.setLoggerName(name);
+                    handler.publish(record);
+                }
+            }));
+        }
+        producers.forEach(Thread::start);
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        handler.close();
+
+        assertEquals(0, handler.droppedCount());
+        assertEquals(threads * recordsPerThread, target.records.size());
+        int[] next = new int[threads];
+        for (LogRecord record : target.records) {
+            int thread = Integer.parseInt(record.getLoggerName().substring("producer-".length()));
+            assertEquals(next[thread]++, Integer.parseInt(record.getMessage()));
+        }
+        assertTrue(target.closed);
+    }
+
+    @Test
+    public void dropsTheRecordsThatDoNotFitAndReportsThem() throws InterruptedException {
+        CountDownLatch writing = new CountDownLatch(1);
+        CollectingHandler target = new CollectingHandler(writing);
+        AsyncLogHandler handler = new AsyncLogHandler(target, 3);
+
+        // the writer takes the first record and blocks on it, then 4 fit in the buffer, rounded up from 3
+        handler.publish(new LogRecord(Level.INFO, "first"));
+        target.blocked.await();
+        for (int i = 0; i < 10; i++) {
+            handler.publish(new LogRecord(Level.INFO, String.valueOf(i)));
+        }
+        assertEquals(6, handler.droppedCount());
+
+        writing.countDown();
+        handler.close();
+
+        // the drops are reported after the batch that was being written when they happened
+        assertEquals(6, target.records.size());
+        assertEquals("first", target.records.get(0).getMessage());
+        LogRecord report = target.records.get(1);
+        assertEquals(Level.WARNING, report.getLevel());
+        assertEquals("6 log records dropped, the log buffer was full", report.getMessage());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(String.valueOf(i), target.records.get(2 + i).getMessage());
+        }
+    }
+
+    private static class CollectingHandler extends Handler {
+
+        final List<LogRecord> records = new ArrayList<>();
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch unblocked;
+        volatile boolean closed = false;
+
+        CollectingHandler(CountDownLatch unblocked) {
+            this.unblocked = unblocked;
+        }
+
+        @Override
+        public synchronized void publish(LogRecord record) {
+            records.add(record);
+            if (unblocked != null) {
+                blocked.countDown();
+                try {
+                    unblocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.github.simplesteph.grpc.server;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveConcurrencyLimitTest {
+
+    private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private long now = 0;
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnInitialLimitOutOfBounds() {
+        new AdaptiveConcurrencyLimit(5, 10, 100);
+    }
+
+    @Test
+    public void admitsCallsUpToTheLimit() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 1, 10, () -> now);
+
+        assertEquals(0, limit.tryAcquire());
+        assertEquals(1, limit.tryAcquire());
+        assertEquals(-1, limit.tryAcquire());
+        assertEquals(2, limit.getInFlight());
+
+        limit.releaseWithoutSample();
+        assertEquals(1, limit.tryAcquire());
+        limit.release(FAST, 1);
+        assertEquals(1, limit.getInFlight());
+        // a single sample doesn't close a window
+        assertEquals(2, limit.getLimit());
+    }
+
+    @Test
+    public void growsToTheMaximumWhileTheLatencyIsSteady() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(20, 10, 200, () -> now);
+
+        int previous = limit.getLimit();
+        for (int i = 0; i < 200; i++) {
+            saturatedWindow(limit, FAST);
+            assertTrue(limit.getLimit() >= previous);
+            previous = limit.getLimit();
+        }
+        assertEquals(200, limit.getLimit());
+    }
+
+    @Test
+    public void keepsTheLimitWhenTheCallsStayFarBelowIt() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(100, 10, 200, () -> now);
+
+        for (int i = 0; i < 20; i++) {
+            window(limit, FAST, 10);
+        }
+        window(limit, SLOW * 10, 10);
+
+        assertEquals(100, limit.getLimit());
+    }
+
+    @Test
+    public void shrinksAfterALatencyStepThenTakesItAsTheNewNormal() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(20, 10, 200, () -> now);
+        for (int i = 0; i < 40; i++) {
+            saturatedWindow(limit, FAST);
+        }
+        int beforeStep = limit.getLimit();
+
+        // the latency is ten times higher from now on
+        int lowest = beforeStep;
+        int previous = beforeStep;
+        for (int i = 0; i < 10; i++) {
+            saturatedWindow(limit, SLOW);
+            assertTrue("shrank by more than half", limit.getLimit() >= previous / 2);
+            assertTrue("grew right after the step", limit.getLimit() < previous);
+            previous = limit.getLimit();
+            lowest = Math.min(lowest, previous);
+        }
+        assertTrue(lowest + " is not well below " + beforeStep, lowest < beforeStep * 0.7);
+
+        // the long term latency catches up, the limit grows again
+        for (int i = 0; i < 100; i++) {
+            saturatedWindow(limit, SLOW);
+        }
+        assertTrue(limit.getLimit() > beforeStep);
+    }
+
+    @Test
+    public void neverShrinksBelowTheMinimum() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(20, 10, 200, () -> now);
+        for (int i = 0; i < 10; i++) {
+            saturatedWindow(limit, FAST);
+        }
+        for (int i = 0; i < 50; i++) {
+            saturatedWindow(limit, FAST * 1000 * (i + 1));
+            assertTrue(limit.getLimit() >= 10);
+        }
+    }
+
+    private void saturatedWindow(AdaptiveConcurrencyLimit limit, long latencyNanos) {
+        window(limit, latencyNanos, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Starts as many calls as the limit admits, at most this many, and ends them all with this latency.
+     * The last one closes the window.
+     */
+    private void window(AdaptiveConcurrencyLimit limit, long latencyNanos, int calls) {
+        int[] inFlightAtStart = new int[Math.min(calls, limit.getLimit())];
+        int started = 0;
+        while (started < inFlightAtStart.length) {
+            int current = limit.tryAcquire();
+            if (current < 0) {
+                break;
+            }
+            inFlightAtStart[started++] = current;
+        }
+
+        for (int i = 0; i < started - 1; i++) {
+            limit.release(latencyNanos, inFlightAtStart[i]);
+        }
+        now += WINDOW_NANOS;
+        limit.release(latencyNanos, inFlightAtStart[started - 1]);
+    }
+}
@@ -0,0 +1,186 @@
+package com.github.simplesteph.grpc.server;
+
+import com.google.common.io.ByteStreams;
+import io.grpc.CallOptions;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerInterceptors;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConcurrencyLimitInterceptorTest {
+
+    // the initial limit of every method
+    private static final int LIMIT = 20;
+
+    private static final MethodDescriptor.Marshaller<String> STRING = new MethodDescriptor.Marshaller<String>() {
+        @Override
+        public InputStream stream(String value) {
+            return new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String parse(InputStream stream) {
+            try {
+                return new String(ByteStreams.toByteArray(stream), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    };
+
+    private static final MethodDescriptor<String, String> WATCH = MethodDescriptor.<String, String>newBuilder()
+            .setType(MethodDescriptor.MethodType.SERVER_STREAMING)
+            .setFullMethodName(MethodDescriptor.generateFullMethodName("test.Streams", "Watch"))
+            .setRequestMarshaller(STRING)
+            .setResponseMarshaller(STRING)
+            .build();
+
+    // the streams the server started and keeps open
+    private final LinkedBlockingQueue<StreamObserver<String>> started = new LinkedBlockingQueue<>();
+    // the ones the test saw start
+    private final ArrayDeque<StreamObserver<String>> open = new ArrayDeque<>();
+
+    private ConcurrencyLimitInterceptor interceptor;
+    private Server server;
+    private ManagedChannel channel;
+
+    private void start(ConcurrencyLimitInterceptor.Mode mode) throws IOException {
+        interceptor = new ConcurrencyLimitInterceptor(mode, 1, 5, TimeUnit.SECONDS);
+        ServerServiceDefinition service = ServerServiceDefinition.builder("test.Streams")
+                .addMethod(WATCH, ServerCalls.asyncServerStreamingCall((request, responseObserver) -> {
+                    responseObserver.onNext(request);
+                    started.add(responseObserver);
+                }))
+                .build();
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name)
+                .addService(ServerInterceptors.intercept(service, interceptor))
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(name).build();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void holdsAPlaceInTheLimitForAsLongAsAStreamLasts() throws Exception {
+        start(ConcurrencyLimitInterceptor.Mode.REJECT);
+        for (int i = 0; i < LIMIT; i++) {
+            watch();
+            assertTrue(awaitStarted(5, TimeUnit.SECONDS));
+        }
+        assertEquals(LIMIT, interceptor.limitOf(WATCH.getFullMethodName()).getInFlight());
+
+        try {
+            watch().get(5, TimeUnit.SECONDS);
+            fail("The stream over the limit should be rejected");
+        } catch (ExecutionException e) {
+            assertEquals(Status.Code.RESOURCE_EXHAUSTED, Status.fromThrowable(e.getCause()).getCode());
+        }
+
+        // once a stream ends another one may start
+        endOneWatch();
+        awaitInFlight(LIMIT - 1);
+        watch();
+        assertTrue(awaitStarted(5, TimeUnit.SECONDS));
+        assertEquals(LIMIT, interceptor.limitOf(WATCH.getFullMethodName()).getInFlight());
+        // the streams are not latency samples
+        assertEquals(LIMIT, interceptor.limitOf(WATCH.getFullMethodName()).getLimit());
+    }
+
+    @Test
+    public void startsAQueuedStreamOnceAnotherOneEnds() throws Exception {
+        start(ConcurrencyLimitInterceptor.Mode.QUEUE);
+        for (int i = 0; i < LIMIT; i++) {
+            watch();
+            assertTrue(awaitStarted(5, TimeUnit.SECONDS));
+        }
+
+        watch();
+        assertFalse(awaitStarted(200, TimeUnit.MILLISECONDS));
+
+        endOneWatch();
+        assertTrue(awaitStarted(5, TimeUnit.SECONDS));
+        awaitInFlight(LIMIT);
+    }
+
+    /**
+     * @return completes when the stream ends, after its first response
+     */
+    private CompletableFuture<Void> watch() {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        ClientCalls.asyncServerStreamingCall(channel.newCall(WATCH, CallOptions.DEFAULT), "watch",
+                new StreamObserver<String>() {
+                    @Override
+                    public void onNext(String value) {
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        done.completeExceptionally(t);
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        done.complete(null);
+                    }
+                });
+        return done;
+    }
+
+    /**
+     * @return false if no stream started within the wait
+     */
+    private boolean awaitStarted(long wait, TimeUnit unit) throws InterruptedException {
+        StreamObserver<String> watch = started.poll(wait, unit);
+        if (watch == null) {
+            return false;
+        }
+        open.add(watch);
+        return true;
+    }
+
+    private void endOneWatch() {
+        open.remove().onCompleted();
+    }
+
+    // the call ends on the server after the client saw it complete
+    private void awaitInFlight(int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (interceptor.limitOf(WATCH.getFullMethodName()).getInFlight() != expected) {
+            if (System.nanoTime() > deadline) {
+                assertEquals(expected, interceptor.limitOf(WATCH.getFullMethodName()).getInFlight());
+            }
+            Thread.sleep(10);
+        }
+    }
+}